@@ -3,6 +3,7 @@ package com.sendsafely.cliapp;
 import me.tongfei.progressbar.ProgressBar;
 import me.tongfei.progressbar.ProgressBarStyle;
 
+import java.io.PrintStream;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 
@@ -11,7 +12,11 @@ import java.time.temporal.ChronoUnit;
  */
 public class ASCIIProgressBar extends ProgressBar {
     public ASCIIProgressBar(String task, long initialMax) {
-        super(task, initialMax, 200, System.out, ProgressBarStyle.ASCII, "", 1L, false, null,
+        this(task, initialMax, System.out);
+    }
+
+    public ASCIIProgressBar(String task, long initialMax, PrintStream out) {
+        super(task, initialMax, 200, out, ProgressBarStyle.ASCII, "", 1L, false, null,
             ChronoUnit.SECONDS, 0L, Duration.ZERO);
     }
 }
@@ -0,0 +1,171 @@
+package com.sendsafely.cliapp;
+
+import com.sendsafely.exceptions.LimitExceededException;
+import java.net.SocketTimeoutException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * An AIMD (additive increase, multiplicative decrease) limit on the number of API calls in flight.
+ * One limiter is shared by every API call in a run. It halves the limit when the API reports that a
+ * limit was exceeded or a call times out, and raises it by one while measured throughput keeps
+ * improving at the current limit.
+ */
+public class AdaptiveLimiter {
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double MIN_IMPROVEMENT = 0.05;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier clock;
+    private Listener listener = (oldLimit, newLimit, reason) -> {};
+
+    private double limit;
+    private int inFlight;
+    private int peakLimit;
+    private long windowStart;
+    private int windowCompletions;
+    private boolean windowSaturated;
+    private double lastThroughput;
+
+    /**
+     * @param initialLimit The number of concurrent calls allowed at first
+     * @param maxLimit The number of concurrent calls the limit never grows beyond
+     */
+    public AdaptiveLimiter(int initialLimit, int maxLimit) {
+        this(initialLimit, maxLimit, System::nanoTime);
+    }
+
+    AdaptiveLimiter(int initialLimit, int maxLimit, LongSupplier clock) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("Maximum concurrency must be at least 1");
+        }
+
+        this.minLimit = 1;
+        this.maxLimit = maxLimit;
+        this.clock = clock;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        this.peakLimit = (int) limit;
+        this.windowStart = clock.getAsLong();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Run the operation once a slot under the current limit is free.
+     */
+    public <T, E1 extends Exception, E2 extends Exception> T call(
+        RetryPolicy.Operation<T, E1, E2> operation) throws E1, E2 {
+        acquire();
+
+        boolean dropped = false;
+        try {
+            return operation.run();
+        } catch (Exception e) {
+            dropped = isOverload(e);
+            throw e;
+        } finally {
+            release(dropped);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getPeakLimit() {
+        return peakLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Whether the failure signals that the API, or the link to it, is overloaded.
+     */
+    public static boolean isOverload(Throwable error) {
+        Set<Throwable> visited = new HashSet<>();
+        for (Throwable current = error; current != null && visited.add(current);
+            current = current.getCause()) {
+            if (current instanceof LimitExceededException
+                || current instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void acquire() {
+        while (inFlight >= (int) limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CLIException("Interrupted while waiting for an API slot", e);
+            }
+        }
+
+        inFlight++;
+        if (inFlight >= (int) limit) {
+            windowSaturated = true;
+        }
+    }
+
+    private synchronized void release(boolean dropped) {
+        inFlight--;
+
+        if (dropped) {
+            setLimit(Math.max(minLimit, limit * BACKOFF_RATIO), "limit exceeded or timed out");
+            resetWindow(0);
+        } else {
+            windowCompletions++;
+            long now = clock.getAsLong();
+            long elapsed = now - windowStart;
+
+            if (elapsed >= WINDOW_NANOS) {
+                double throughput = windowCompletions / (elapsed / 1e9);
+
+                // Only grow when callers actually wanted more concurrency and it paid off.
+                if (windowSaturated && throughput > lastThroughput * (1 + MIN_IMPROVEMENT)
+                    && limit < maxLimit) {
+                    setLimit(limit + 1, String.format("throughput %.1f calls/s", throughput));
+                }
+
+                resetWindow(throughput);
+            }
+        }
+
+        notifyAll();
+    }
+
+    private void setLimit(double newLimit, String reason) {
+        int oldLimit = (int) limit;
+        limit = newLimit;
+        peakLimit = Math.max(peakLimit, (int) limit);
+
+        if ((int) limit != oldLimit) {
+            listener.onLimitChanged(oldLimit, (int) limit, reason);
+        }
+    }
+
+    private void resetWindow(double throughput) {
+        lastThroughput = throughput;
+        windowStart = clock.getAsLong();
+        windowCompletions = 0;
+        windowSaturated = inFlight >= (int) limit;
+    }
+
+    /**
+     * Notified whenever the whole-number concurrency limit changes.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onLimitChanged(int oldLimit, int newLimit, String reason);
+    }
+}
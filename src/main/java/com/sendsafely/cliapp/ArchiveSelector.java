@@ -0,0 +1,87 @@
+package com.sendsafely.cliapp;
+
+import com.sendsafely.Package;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which packages a policy-based archive run applies to, from package metadata that has
+ * already been loaded.
+ */
+public class ArchiveSelector {
+    private static final Pattern AGE = Pattern.compile("(\\d+)\\s*([smhdw])", Pattern.CASE_INSENSITIVE);
+
+    private final Duration olderThan;
+    private final Set<String> states;
+    private final Instant now;
+
+    /**
+     * @param olderThan Only packages created longer ago than this, or null for any age
+     * @param states Only packages in one of these states (e.g. "finalized"), or empty for any state
+     * @param now The time package ages are measured from
+     */
+    public ArchiveSelector(Duration olderThan, String[] states, Instant now) {
+        this.olderThan = olderThan;
+        this.states = Arrays.stream(states).map(ArchiveSelector::normalizeState)
+            .collect(Collectors.toSet());
+        this.now = now;
+    }
+
+    /**
+     * Whether the selector has any filter at all.
+     */
+    public boolean hasFilters() {
+        return olderThan != null || !states.isEmpty();
+    }
+
+    public boolean matches(Package p) {
+        if (olderThan != null && (p.getPackageTimestamp() == null
+            || !p.getPackageTimestamp().toInstant().isBefore(now.minus(olderThan)))) {
+            return false;
+        }
+
+        return matchesState(p.getState() == null ? null : p.getState().toString());
+    }
+
+    boolean matchesState(String state) {
+        return states.isEmpty() || state != null && states.contains(normalizeState(state));
+    }
+
+    /**
+     * Parse an age such as "30d", "12h", "90m", "45s" or "2w".
+     */
+    public static Duration parseAge(String value) {
+        Matcher matcher = AGE.matcher(value.trim());
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(
+                "Invalid age '" + value + "'. Use a number followed by s, m, h, d or w, e.g. 30d");
+        }
+
+        long amount = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2).toLowerCase(Locale.ROOT)) {
+            case "s":
+                return Duration.ofSeconds(amount);
+            case "m":
+                return Duration.ofMinutes(amount);
+            case "h":
+                return Duration.ofHours(amount);
+            case "d":
+                return Duration.ofDays(amount);
+            default:
+                return Duration.ofDays(amount * 7);
+        }
+    }
+
+    private static String normalizeState(String state) {
+        String normalized = state.trim().toLowerCase(Locale.ROOT).replace(' ', '_').replace('-', '_');
+        return normalized.startsWith("package_state_")
+            ? normalized.substring("package_state_".length()) : normalized;
+    }
+}
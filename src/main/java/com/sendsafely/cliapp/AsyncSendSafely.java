@@ -0,0 +1,200 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sendsafely.Package;
+import com.sendsafely.Privatekey;
+import com.sendsafely.ProgressInterface;
+import com.sendsafely.Recipient;
+import com.sendsafely.SendSafely;
+import com.sendsafely.dto.PackageReference;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A non-blocking view of the SendSafely SDK client. Every call runs on an executor and returns a
+ * CompletableFuture, so calls that don't depend on each other can be started together and their
+ * results composed. A failed call completes its future exceptionally with the SDK's own exception,
+ * and cancelling a returned future interrupts the call behind it.
+ *
+ * <p>Every call goes through an {@link Invoker}, which the CLI uses to apply its retry policy and
+ * concurrency limit in one place. Only calls that are safe to repeat have methods here: creating
+ * and finalizing a package, and uploading a file, need care around retries that the caller takes
+ * through {@link #supply(String, Call)} or by calling the SDK directly.
+ */
+public class AsyncSendSafely {
+    private final SendSafely client;
+    private final ExecutorService executor;
+    private final Invoker invoker;
+
+    /**
+     * @param client The blocking SDK client
+     * @param executor Runs the calls, e.g. one from {@link #newExecutor(int)}
+     * @param invoker Wraps every call, e.g. to retry it
+     */
+    public AsyncSendSafely(SendSafely client, ExecutorService executor, Invoker invoker) {
+        this.client = client;
+        this.executor = executor;
+        this.invoker = invoker;
+    }
+
+    /**
+     * An executor with a virtual thread per call where the runtime has them (Java 21 and later),
+     * and a pool of daemon threads otherwise. Blocked virtual threads cost next to nothing, so how
+     * many calls really run at once is left to the {@link Invoker}.
+     *
+     * @param platformThreads The pool size when virtual threads aren't available
+     */
+    public static ExecutorService newExecutor(int platformThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(1, platformThreads),
+                new ThreadFactoryBuilder().setNameFormat("ss-async-%d").setDaemon(true).build());
+        }
+    }
+
+    public SendSafely getClient() {
+        return client;
+    }
+
+    public CompletableFuture<Void> encryptAndUploadMessage(String packageId, String keycode,
+        String message) {
+        return supply("encryptAndUploadMessage", () -> {
+            client.encryptAndUploadMessage(packageId, keycode, message);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<PackageReference>> getActivePackages() {
+        return supply("getActivePackages", client::getActivePackages);
+    }
+
+    public CompletableFuture<Package> getPackageInformation(String packageId) {
+        return supply("getPackageInformation", () -> client.getPackageInformation(packageId));
+    }
+
+    public CompletableFuture<String> getKeycode(String packageId, Privatekey privateKey) {
+        return supply("getKeycode", () -> client.getKeycode(packageId, privateKey));
+    }
+
+    public CompletableFuture<File> downloadFile(String packageId, String fileId, String keycode,
+        ProgressInterface progress) {
+        return supply("downloadFile", () -> client.downloadFile(packageId, fileId, keycode, progress));
+    }
+
+    public CompletableFuture<Void> deletePackage(String packageId) {
+        return supply("deletePackage", () -> {
+            client.deletePackage(packageId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Recipient> addRecipient(String packageId, String email) {
+        return supply("addRecipient", () -> client.addRecipient(packageId, email));
+    }
+
+    /**
+     * Run any call on the executor through the invoker.
+     *
+     * @param name The operation name given to the invoker
+     */
+    public <T> CompletableFuture<T> supply(String name, Call<T> call) {
+        InterruptingFuture<T> future = new InterruptingFuture<>();
+
+        try {
+            future.setTask(executor.submit(() -> {
+                try {
+                    future.complete(invoker.invoke(name, call));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * The failure behind an exception thrown by joining or getting a future.
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable current = error;
+        while ((current instanceof CompletionException || current instanceof ExecutionException)
+            && current.getCause() != null) {
+            current = current.getCause();
+        }
+        return current;
+    }
+
+    /**
+     * Wait for a future and return its result, or throw the failure behind it as it was thrown,
+     * e.g. the SDK's checked exception, for blocking callers.
+     *
+     * @param <E> The checked exception the call behind the future can throw
+     */
+    public static <T, E extends Exception> T join(CompletableFuture<T> future) throws E {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            throw AsyncSendSafely.<RuntimeException>rethrow(unwrap(e));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <X extends Throwable> X rethrow(Throwable error) throws X {
+        // Calls can only throw their declared exceptions or unchecked ones, so rethrowing the
+        // original failure preserves the caller's checked exception contract.
+        throw (X) error;
+    }
+
+    /**
+     * A blocking SDK call.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * Runs every call made through the facade, on the executor's thread.
+     */
+    @FunctionalInterface
+    public interface Invoker {
+        <T> T invoke(String name, Call<T> call) throws Exception;
+    }
+
+    /**
+     * A future that interrupts the task computing it when cancelled. CompletableFuture on its own
+     * only marks itself cancelled and leaves the task running.
+     */
+    private static class InterruptingFuture<T> extends CompletableFuture<T> {
+        private volatile Future<?> task;
+
+        void setTask(Future<?> task) {
+            this.task = task;
+            if (isCancelled()) {
+                task.cancel(true);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> running = task;
+            if (cancelled && running != null) {
+                running.cancel(true);
+            }
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs long interactive operations, such as uploads, one after another on a background thread so
+ * the menu stays responsive meanwhile. Jobs are tracked for the menu's status line, for waiting on
+ * them before finalizing, and for undo: a job that hasn't started is dropped, a finished one is
+ * undone, and a running one is undone as soon as it finishes.
+ */
+public class BackgroundJobs {
+    private static final ThreadLocal<Job> CURRENT = new ThreadLocal<>();
+
+    private final String kind;
+    private final ErrorReporter errorReporter;
+    private final List<Job> jobs = new ArrayList<>();
+    private ExecutorService executor;
+
+    /**
+     * @param kind What the jobs are, e.g. "upload", for thread names, status and errors
+     */
+    public BackgroundJobs(String kind, ErrorReporter errorReporter) {
+        this.kind = kind;
+        this.errorReporter = errorReporter;
+    }
+
+    /**
+     * The job running on the calling thread, or null outside of a background job.
+     */
+    public static Job currentJob() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Queue a job.
+     *
+     * @param name What the job works on, e.g. a file name
+     * @param work Returns whether the job succeeded; failures are expected to be reported by it
+     */
+    public synchronized Job submit(String name, Callable<Boolean> work) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ss-" + kind + "-%d").setDaemon(true).build());
+        }
+
+        Job job = new Job(name);
+        jobs.add(job);
+        executor.execute(() -> run(job, work));
+        return job;
+    }
+
+    private void run(Job job, Callable<Boolean> work) {
+        if (!job.start()) {
+            return;
+        }
+
+        boolean succeeded = false;
+        CURRENT.set(job);
+        try {
+            succeeded = work.call();
+        } catch (Exception e) {
+            errorReporter.report("Background " + kind + " of " + job.name + " failed", e);
+        } finally {
+            CURRENT.remove();
+        }
+
+        job.finish(succeeded);
+    }
+
+    /**
+     * Wait for every queued and running job to finish.
+     *
+     * @return The number of jobs that failed
+     */
+    public int awaitAll() throws InterruptedException {
+        List<Job> waiting;
+        synchronized (this) {
+            waiting = new ArrayList<>(jobs);
+        }
+
+        int failed = 0;
+        for (Job job : waiting) {
+            job.done.await();
+            if (job.state == State.FAILED) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * The number of jobs queued or running.
+     */
+    public synchronized int getOutstanding() {
+        return (int) jobs.stream().filter(job -> !job.isDone()).count();
+    }
+
+    /**
+     * Forget every finished job, e.g. once the package they belonged to is finalized.
+     */
+    public synchronized void clearFinished() {
+        jobs.removeIf(Job::isDone);
+    }
+
+    /**
+     * A one-line summary of the jobs, e.g. "upload of data.tar 42%, 2 queued, 1 failed", or an
+     * empty string when there is nothing worth showing.
+     */
+    public synchronized String status() {
+        List<String> parts = new ArrayList<>();
+        int queued = 0;
+        int failed = 0;
+
+        for (Job job : jobs) {
+            if (job.state == State.RUNNING) {
+                parts.add(kind + " of " + job.name + (job.percent < 0 ? "" : " " + job.percent + "%"));
+            } else if (job.state == State.QUEUED) {
+                queued++;
+            } else if (job.state == State.FAILED) {
+                failed++;
+            }
+        }
+
+        if (queued > 0) {
+            parts.add(queued + " queued");
+        }
+        if (failed > 0) {
+            parts.add(failed + " failed");
+        }
+
+        return String.join(", ", parts);
+    }
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    /**
+     * One background job.
+     */
+    public static class Job {
+        private final String name;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile State state = State.QUEUED;
+        private volatile int percent = -1;
+        private Runnable undo;
+        private boolean undoRequested;
+
+        Job(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Report progress, as a whole percentage, for the status line.
+         */
+        public void setPercent(int percent) {
+            this.percent = percent;
+        }
+
+        /**
+         * Set the action that undoes what the job did. Called by the job's work once it has
+         * something to undo.
+         */
+        public synchronized void setUndo(Runnable undo) {
+            this.undo = undo;
+        }
+
+        /**
+         * Undo the job: drop it if it hasn't started, undo it if it has finished, or have it undone
+         * as soon as it finishes if it is running.
+         *
+         * @return The state the job was in when undo was requested
+         */
+        public State undo() {
+            Runnable action;
+
+            synchronized (this) {
+                State previous = state;
+
+                if (previous == State.QUEUED) {
+                    state = State.CANCELLED;
+                    done.countDown();
+                    return previous;
+                }
+
+                if (previous == State.RUNNING) {
+                    undoRequested = true;
+                    return previous;
+                }
+
+                action = undo;
+                undo = null;
+                if (action == null) {
+                    return previous;
+                }
+            }
+
+            action.run();
+            return State.SUCCEEDED;
+        }
+
+        private synchronized boolean start() {
+            if (state != State.QUEUED) {
+                return false;
+            }
+            state = State.RUNNING;
+            return true;
+        }
+
+        private void finish(boolean succeeded) {
+            Runnable action = null;
+
+            synchronized (this) {
+                state = succeeded ? State.SUCCEEDED : State.FAILED;
+                if (undoRequested && undo != null) {
+                    action = undo;
+                    undo = null;
+                }
+            }
+
+            try {
+                if (action != null) {
+                    action.run();
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the SDK's connection warm while the interactive CLI waits on the user. HttpURLConnection
+ * drops idle keep-alive connections after a few seconds, so every action taken after a pause would
+ * otherwise pay a new TCP and TLS handshake. While a prompt is open a cheap call is made at a fixed
+ * interval, up to a limit, so the action that follows finds a live connection in the pool.
+ */
+public class ConnectionWarmer {
+    private final long intervalMillis;
+    private final int maxPings;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pinging;
+
+    /**
+     * @param intervalMillis Time between calls, which should be below the keep-alive timeout
+     * @param maxPings Calls made per prompt at most, after which the user is assumed to be away
+     */
+    public ConnectionWarmer(long intervalMillis, int maxPings) {
+        this.intervalMillis = intervalMillis;
+        this.maxPings = maxPings;
+    }
+
+    /**
+     * Start calling the given ping, first after one interval, until {@link #stop()}. Failures are
+     * ignored; the next real call reports any problem.
+     */
+    public synchronized void start(Callable<?> ping) {
+        stop();
+
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ss-warm-%d").setDaemon(true).build());
+        }
+
+        AtomicInteger remaining = new AtomicInteger(maxPings);
+        pinging = scheduler.scheduleWithFixedDelay(() -> {
+            if (remaining.getAndDecrement() <= 0) {
+                // Throwing is how a periodic task cancels only itself
+                throw new CancellationException("Stopped keeping the connection warm");
+            }
+
+            try {
+                ping.call();
+            } catch (Exception e) {
+                // Nothing to warm while the service is unreachable
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop pinging. A call already under way is left to finish.
+     */
+    public synchronized void stop() {
+        if (pinging != null) {
+            pinging.cancel(false);
+            pinging = null;
+        }
+    }
+
+    /**
+     * Stop pinging for good, abandoning any call under way.
+     */
+    public synchronized void close() {
+        stop();
+
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -5,15 +5,65 @@ import de.codeshelf.consoleui.prompt.*;
 import de.codeshelf.consoleui.prompt.builder.ListPromptBuilder;
 import de.codeshelf.consoleui.prompt.builder.PromptBuilder;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
  * Helper functions for getting user input from the console.
+ *
+ * <p>On a terminal the prompts are consoleui menus, all drawn by one ConsolePrompt (and so one jline
+ * terminal) for the whole session. Without a terminal, e.g. under cron or CI, jline is never
+ * touched: prompts are plain lines read from stdin, menus are answered by number or name, and a
+ * prompt that hits the end of input fails straight away instead of waiting forever.
  */
 public class ConsolePromptHelper {
+    private final ConsolePrompt consolePrompt;
+    private final BufferedReader lineReader;
+    private final PrintStream out;
+
+    /**
+     * Prompt on the terminal if there is one, and with plain lines on stdin and stdout otherwise.
+     */
+    public ConsolePromptHelper() {
+        this(System.console() != null);
+    }
+
+    ConsolePromptHelper(boolean terminal) {
+        this(terminal ? new ConsolePrompt() : null, terminal ? null
+            : new BufferedReader(new InputStreamReader(System.in, Charset.defaultCharset())),
+            System.out);
+    }
+
+    /**
+     * Prompt with plain lines read from the given reader.
+     */
+    ConsolePromptHelper(BufferedReader lineReader, PrintStream out) {
+        this(null, lineReader, out);
+    }
+
+    private ConsolePromptHelper(ConsolePrompt consolePrompt, BufferedReader lineReader,
+        PrintStream out) {
+        this.consolePrompt = consolePrompt;
+        this.lineReader = lineReader;
+        this.out = out;
+    }
+
+    /**
+     * Whether prompts are drawn on a terminal with jline, rather than read as plain lines.
+     */
+    public boolean isTerminal() {
+        return consolePrompt != null;
+    }
+
     /**
      * Prompt for a file location, then return the java.io.File for that location.
      *
@@ -49,7 +99,10 @@ public class ConsolePromptHelper {
      * @return The String response from the user
      */
     public String promptForString(String message) throws IOException {
-        ConsolePrompt consolePrompt = new ConsolePrompt();
+        if (!isTerminal()) {
+            return readLine(message);
+        }
+
         PromptBuilder promptBuilder = consolePrompt.getPromptBuilder();
 
         promptBuilder.createInputPrompt()
@@ -73,7 +126,11 @@ public class ConsolePromptHelper {
      * @return The String response from the user
      */
     public String promptForPrivateString(String message) throws IOException {
-        ConsolePrompt consolePrompt = new ConsolePrompt();
+        if (!isTerminal()) {
+            // Nothing is echoed to mask without a terminal
+            return readLine(message);
+        }
+
         PromptBuilder promptBuilder = consolePrompt.getPromptBuilder();
 
         promptBuilder.createInputPrompt()
@@ -100,7 +157,10 @@ public class ConsolePromptHelper {
      */
     public ActionType promptForAction(String message, Map<ActionType, String> options)
         throws IOException {
-        ConsolePrompt consolePrompt = new ConsolePrompt();
+        if (!isTerminal()) {
+            return readAction(message, options);
+        }
+
         PromptBuilder promptBuilder = consolePrompt.getPromptBuilder();
 
         ListPromptBuilder listPromptBuilder = promptBuilder.createListPrompt()
@@ -127,7 +187,10 @@ public class ConsolePromptHelper {
      * @return The yes/no boolean response from the user
      */
     public boolean promptForConfirmation(String message) throws IOException {
-        ConsolePrompt consolePrompt = new ConsolePrompt();
+        if (!isTerminal()) {
+            return readConfirmation(message);
+        }
+
         PromptBuilder promptBuilder = consolePrompt.getPromptBuilder();
 
         promptBuilder.createConfirmPromp()
@@ -142,4 +205,64 @@ public class ConsolePromptHelper {
 
         return item.getConfirmed() == ConfirmChoice.ConfirmationValue.YES;
     }
+
+    private String readLine(String message) throws IOException {
+        return readLine(message, message);
+    }
+
+    /**
+     * @param prompt What is printed before reading the line
+     * @param question What is being asked, for the error if there is no input left
+     */
+    private String readLine(String prompt, String question) throws IOException {
+        out.print(prompt + " ");
+        out.flush();
+
+        String line = lineReader.readLine();
+
+        if (line == null) {
+            throw new IOException("No input left to answer \"" + question + "\"");
+        }
+
+        return line;
+    }
+
+    private ActionType readAction(String message, Map<ActionType, String> options)
+        throws IOException {
+        List<ActionType> actions = new ArrayList<>(options.keySet());
+
+        while (true) {
+            out.println(message);
+            for (int i = 0; i < actions.size(); i++) {
+                out.println("  " + (i + 1) + ") " + options.get(actions.get(i)));
+            }
+
+            String answer = readLine(">", message).trim();
+
+            for (int i = 0; i < actions.size(); i++) {
+                ActionType action = actions.get(i);
+                if (answer.equals(Integer.toString(i + 1)) || answer.equalsIgnoreCase(action.name())
+                    || answer.equalsIgnoreCase(options.get(action))) {
+                    return action;
+                }
+            }
+
+            out.println("Please answer with a number from 1 to " + actions.size());
+        }
+    }
+
+    private boolean readConfirmation(String message) throws IOException {
+        while (true) {
+            switch (readLine(message + " (y/n)").trim().toLowerCase(Locale.ROOT)) {
+                case "y":
+                case "yes":
+                    return true;
+                case "n":
+                case "no":
+                    return false;
+                default:
+                    out.println("Please answer y or n");
+            }
+        }
+    }
 }
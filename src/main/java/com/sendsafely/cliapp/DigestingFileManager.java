@@ -0,0 +1,104 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.io.BaseEncoding;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.sendsafely.file.DefaultFileManager;
+
+/**
+ * A FileManager that hashes the file with SHA-256 while the SDK reads it for encryption, so the
+ * package manifest costs no second pass over the file. Each stream handed out starts a fresh
+ * digest, so a retried upload ends up with the digest of the attempt that succeeded.
+ */
+class DigestingFileManager extends DefaultFileManager {
+    private final File file;
+    private CountingDigestStream lastStream;
+
+    DigestingFileManager(File file) throws IOException {
+        super(file);
+        this.file = file;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        lastStream = new CountingDigestStream(super.getInputStream());
+        return lastStream;
+    }
+
+    /**
+     * The SHA-256 of the file, as hex. Taken from the last stream the SDK read if it read the whole
+     * file through it, and from reading the file again otherwise.
+     */
+    public synchronized String sha256() throws IOException {
+        if (lastStream != null && lastStream.count == file.length()) {
+            return BaseEncoding.base16().lowerCase().encode(lastStream.getMessageDigest().digest());
+        }
+
+        return PackageManifest.sha256(file);
+    }
+
+    /**
+     * Hashes everything read through it and counts the bytes, so a caller can tell whether the
+     * digest covers the whole input.
+     */
+    static class CountingDigestStream extends DigestInputStream {
+        private long count;
+
+        CountingDigestStream(InputStream in) throws IOException {
+            super(in, newDigest());
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        private static MessageDigest newDigest() throws IOException {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-256 is not available", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the digest, so read through them instead
+            byte[] buffer = new byte[8192];
+            long skipped = 0;
+            int read;
+            while (skipped < n
+                && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
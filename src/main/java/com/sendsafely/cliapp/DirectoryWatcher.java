@@ -0,0 +1,223 @@
+package com.sendsafely.cliapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Hands out groups of new files appearing in a directory, using the platform's file change
+ * notifications (inotify on Linux) rather than polling. A file only counts as arrived once it has
+ * stopped changing for the settle time, so files still being written are never picked up, and
+ * everything that arrives before the directory goes quiet for that long forms one group.
+ *
+ * <p>Only entries directly in the directory are considered; a subdirectory counts as one entry
+ * that is settled once nothing below it changes. Hidden entries are ignored.
+ */
+public class DirectoryWatcher implements AutoCloseable {
+    private final Path directory;
+    private final long settleNanos;
+    private final WatchService watchService;
+    private final Set<String> handled;
+    private final Map<Path, Snapshot> pending = new LinkedHashMap<>();
+    private boolean scanned;
+
+    /**
+     * @param directory The directory to watch
+     * @param settleMillis How long files must stay unchanged before they are handed out
+     * @param handled Fingerprints of files already dealt with, e.g. in an earlier run, which are
+     *     skipped unless they change
+     */
+    public DirectoryWatcher(Path directory, long settleMillis, Set<String> handled)
+        throws IOException {
+        this.directory = directory;
+        this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+        this.handled = new HashSet<>(handled);
+        this.watchService = directory.getFileSystem().newWatchService();
+
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * Wait for the next group of settled files. Files already in the directory when watching
+     * starts make up the first group.
+     *
+     * @return The files, in the order they arrived, or null once the watcher is closed
+     */
+    public List<File> nextBatch() throws IOException, InterruptedException {
+        if (!scanned) {
+            scanned = true;
+            scan();
+        }
+
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty()
+                    ? watchService.take()
+                    : watchService.poll(Math.max(1, TimeUnit.NANOSECONDS.toMillis(settleNanos) / 4),
+                        TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were dropped, so look at everything again
+                            scan();
+                        } else {
+                            track(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+
+                List<File> batch = takeSettled();
+                if (batch != null) {
+                    return batch;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remember files as dealt with, so they are not handed out again unless they change.
+     */
+    public void markHandled(List<File> files) throws IOException {
+        for (File file : files) {
+            try {
+                handled.add(fingerprint(file));
+            } catch (NoSuchFileException e) {
+                // Gone already, so it can't come back unchanged
+            }
+        }
+    }
+
+    /**
+     * Identifies a file by name, size and modification time. For a directory the size and time
+     * cover everything below it.
+     */
+    public static String fingerprint(File file) throws IOException {
+        Snapshot snapshot = Snapshot.of(file.toPath(), 0);
+        return file.getName() + "|" + snapshot.size + "|" + snapshot.modified;
+    }
+
+    private void scan() throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                track(entry);
+            }
+        }
+    }
+
+    private void track(Path entry) {
+        if (entry.getFileName().toString().startsWith(".")) {
+            return;
+        }
+        // Every event restarts the settle time; the snapshot is taken when checking
+        pending.put(entry, null);
+    }
+
+    /**
+     * Update every pending entry and return them all once none has changed for the settle time.
+     */
+    private List<File> takeSettled() throws IOException {
+        long now = System.nanoTime();
+        boolean settled = true;
+
+        for (Map.Entry<Path, Snapshot> entry : new ArrayList<>(pending.entrySet())) {
+            if (!Files.exists(entry.getKey())) {
+                pending.remove(entry.getKey());
+                continue;
+            }
+
+            Snapshot current;
+            try {
+                current = Snapshot.of(entry.getKey(), now);
+            } catch (NoSuchFileException | UncheckedIOException e) {
+                // Something under it was removed while looking; check again next round
+                pending.put(entry.getKey(), null);
+                settled = false;
+                continue;
+            }
+
+            Snapshot previous = entry.getValue();
+
+            if (previous == null || !previous.sameContent(current)) {
+                pending.put(entry.getKey(), current);
+                settled = false;
+            } else if (now - previous.since < settleNanos) {
+                settled = false;
+            }
+        }
+
+        if (!settled || pending.isEmpty()) {
+            return null;
+        }
+
+        List<File> batch = new ArrayList<>();
+        for (Path entry : pending.keySet()) {
+            File file = entry.toFile();
+            if (!handled.contains(fingerprint(file))) {
+                batch.add(file);
+            }
+        }
+        pending.clear();
+
+        return batch.isEmpty() ? null : batch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private static class Snapshot {
+        final long size;
+        final long modified;
+        final long since;
+
+        Snapshot(long size, long modified, long since) {
+            this.size = size;
+            this.modified = modified;
+            this.since = since;
+        }
+
+        static Snapshot of(Path path, long since) throws IOException {
+            if (!Files.isDirectory(path)) {
+                return new Snapshot(Files.size(path), Files.getLastModifiedTime(path).toMillis(),
+                    since);
+            }
+
+            long size = 0;
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            try (Stream<Path> paths = Files.walk(path)) {
+                for (Path child : (Iterable<Path>) paths::iterator) {
+                    size += Files.isRegularFile(child) ? Files.size(child) : 0;
+                    modified = Math.max(modified, Files.getLastModifiedTime(child).toMillis());
+                }
+            }
+            return new Snapshot(size, modified, since);
+        }
+
+        boolean sameContent(Snapshot other) {
+            return size == other.size && modified == other.modified;
+        }
+    }
+}
@@ -31,7 +31,7 @@ public class ErrorReporter {
         this.debug = debug;
     }
 
-    public void addSecret(String secret) {
+    public synchronized void addSecret(String secret) {
         if (secret != null && !secret.isEmpty()) {
             secrets.add(secret);
         }
@@ -94,8 +94,10 @@ public class ErrorReporter {
         String sanitized = ARMORED_PRIVATE_KEY.matcher(value).replaceAll(REDACTED);
         sanitized = SENSITIVE_ASSIGNMENT.matcher(sanitized).replaceAll("$1" + REDACTED);
         sanitized = PACKAGE_KEYCODE.matcher(sanitized).replaceAll("$1" + REDACTED);
-        for (String secret : secrets) {
-            sanitized = sanitized.replace(secret, REDACTED);
+        synchronized (this) {
+            for (String secret : secrets) {
+                sanitized = sanitized.replace(secret, REDACTED);
+            }
         }
         return sanitized;
     }
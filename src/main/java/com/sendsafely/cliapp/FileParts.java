@@ -0,0 +1,267 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.io.BaseEncoding;
+import com.sendsafely.file.DefaultFileManager;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a large file into parts that are uploaded as separate package files, so they can be
+ * encrypted and sent concurrently. Parts are read straight from the original file with positional
+ * reads on one shared channel, so splitting copies nothing and parts don't contend for a file
+ * position. Part names, e.g. {@code data.tar.part-007-of-120}, tell a downloader how to join
+ * them back up, and anyone else can join them with {@code cat data.tar.part-* > data.tar}.
+ */
+public class FileParts implements AutoCloseable {
+    private static final Pattern PART_NAME = Pattern.compile("(.+)\\.part-(\\d+)-of-(\\d+)");
+
+    private final FileChannel channel;
+    private final List<Part> parts = new ArrayList<>();
+
+    /**
+     * @param file The file to split
+     * @param partSize The size of every part but the last
+     * @param digest Whether parts hash themselves with SHA-256 as they are read
+     */
+    public FileParts(File file, long partSize, boolean digest) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        long size = channel.size();
+        int count = (int) Math.max(1, (size + partSize - 1) / partSize);
+        for (int i = 0; i < count; i++) {
+            long offset = i * partSize;
+            parts.add(new Part(file, partName(file.getName(), i + 1, count), offset,
+                Math.min(partSize, size - offset), digest));
+        }
+    }
+
+    public List<Part> getParts() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * The name of part {@code index} (from 1) of {@code count} of a file.
+     */
+    public static String partName(String name, int index, int count) {
+        int width = Math.max(3, String.valueOf(count).length());
+        return String.format("%s.part-%0" + width + "d-of-%0" + width + "d", name, index, count);
+    }
+
+    /**
+     * Parse a part name.
+     *
+     * @return The part's file name, index and count, or null if the name isn't a part's
+     */
+    public static PartName parseName(String name) {
+        Matcher matcher = PART_NAME.matcher(name);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        int index = Integer.parseInt(matcher.group(2));
+        int count = Integer.parseInt(matcher.group(3));
+        return index >= 1 && index <= count ? new PartName(matcher.group(1), index, count) : null;
+    }
+
+    /**
+     * Find the files that are parts of a split file, for every split file whose parts are all
+     * present.
+     *
+     * @param nameOf The name of an item
+     * @return The parts of each complete split file, in order, by the name of the file they make up
+     */
+    public static <T> Map<String, List<T>> completeGroups(List<T> items, Function<T, String> nameOf) {
+        Map<String, Object[]> groups = new LinkedHashMap<>();
+        Set<String> broken = new HashSet<>();
+
+        for (T item : items) {
+            PartName part = parseName(nameOf.apply(item));
+            if (part == null) {
+                continue;
+            }
+
+            Object[] group = groups.computeIfAbsent(part.getFileName(), name -> new Object[part.getCount()]);
+            if (group.length != part.getCount() || group[part.getIndex() - 1] != null) {
+                broken.add(part.getFileName());
+            } else {
+                group[part.getIndex() - 1] = item;
+            }
+        }
+
+        Map<String, List<T>> complete = new LinkedHashMap<>();
+        for (Map.Entry<String, Object[]> group : groups.entrySet()) {
+            if (!broken.contains(group.getKey()) && !Arrays.asList(group.getValue()).contains(null)) {
+                @SuppressWarnings("unchecked")
+                List<T> parts = (List<T>) Arrays.asList(group.getValue());
+                complete.put(group.getKey(), parts);
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Append a downloaded part to the file being joined.
+     */
+    public static void append(File part, FileChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    /**
+     * The file name, index and count encoded in a part's name.
+     */
+    public static class PartName {
+        private final String fileName;
+        private final int index;
+        private final int count;
+
+        PartName(String fileName, int index, int count) {
+            this.fileName = fileName;
+            this.index = index;
+            this.count = count;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * One part, handed to the SDK like a file of its own.
+     */
+    public class Part extends DefaultFileManager {
+        private final String name;
+        private final long offset;
+        private final long length;
+        private final boolean digest;
+        private DigestingFileManager.CountingDigestStream lastStream;
+
+        Part(File file, String name, long offset, long length, boolean digest) throws IOException {
+            super(file);
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.digest = digest;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            InputStream in = new SliceInputStream(offset, length);
+            if (!digest) {
+                return in;
+            }
+
+            lastStream = new DigestingFileManager.CountingDigestStream(in);
+            return lastStream;
+        }
+
+        /**
+         * The SHA-256 of the part, as hex, from the last stream the SDK read if it read all of
+         * it, and from reading the part again otherwise.
+         */
+        public synchronized String sha256() throws IOException {
+            if (lastStream == null || lastStream.getCount() != length) {
+                lastStream = new DigestingFileManager.CountingDigestStream(
+                    new SliceInputStream(offset, length));
+                byte[] buffer = new byte[64 * 1024];
+                while (lastStream.read(buffer, 0, buffer.length) >= 0) {
+                    // Reading is hashing
+                }
+            }
+
+            return BaseEncoding.base16().lowerCase().encode(lastStream.getMessageDigest().digest());
+        }
+    }
+
+    /**
+     * Reads a range of the shared channel with positional reads.
+     */
+    private class SliceInputStream extends InputStream {
+        private final long end;
+        private long position;
+
+        SliceInputStream(long offset, long length) {
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)),
+                position);
+            if (read < 0) {
+                throw new IOException("File shrank while it was being uploaded");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -1,24 +1,81 @@
 package com.sendsafely.cliapp;
 
 import com.sendsafely.ProgressInterface;
+import java.util.function.IntConsumer;
 import me.tongfei.progressbar.ProgressBar;
 
 /**
  * ProgressInterface implementation that uses a me.tongfei.progressbar.ProgressBar to display file
- * upload progress.
+ * transfer progress, and/or reports each whole-percent change to a listener. It also remembers the
+ * file ID the SDK reports, so a failed upload can be cleaned up before it is retried.
  */
-public class FileProgressBar implements ProgressInterface {
+public class FileProgressBar implements ProgressInterface, AutoCloseable {
     private final ProgressBar progressBar;
+    private final IntConsumer listener;
+    private volatile String fileId;
+    private int lastPercent = -1;
 
     public FileProgressBar(ProgressBar progressBar) {
+        this(progressBar, null);
+    }
+
+    /**
+     * @param progressBar The bar to draw progress on, or null to draw nothing
+     * @param listener Receives progress as a whole percentage whenever it changes, or null
+     */
+    public FileProgressBar(ProgressBar progressBar, IntConsumer listener) {
         this.progressBar = progressBar;
+        this.listener = listener;
     }
 
     @Override
     public void updateProgress(String s, double progress) {
-        progressBar.stepTo(Math.round(progress * 100));
+        int percent = (int) Math.round(progress * 100);
+
+        if (progressBar != null) {
+            progressBar.stepTo(percent);
+        }
+
+        synchronized (this) {
+            if (listener == null || percent == lastPercent) {
+                return;
+            }
+            lastPercent = percent;
+        }
+        listener.accept(percent);
+    }
+
+    @Override
+    public void gotFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    /**
+     * The ID of the file created by the most recent upload attempt, or null if none was created.
+     */
+    public String getFileId() {
+        return fileId;
+    }
+
+    /**
+     * Forget the current file ID and rewind the progress bar, ready for another attempt.
+     */
+    public void reset() {
+        fileId = null;
+        updateProgress(null, 0);
+    }
+
+    /**
+     * Mark the transfer as complete.
+     */
+    public void complete() {
+        updateProgress(null, 1);
     }
 
     @Override
-    public void gotFileId(String s) {}
+    public void close() {
+        if (progressBar != null) {
+            progressBar.close();
+        }
+    }
 }
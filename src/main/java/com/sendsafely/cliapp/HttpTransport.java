@@ -0,0 +1,57 @@
+package com.sendsafely.cliapp;
+
+import java.net.URI;
+
+/**
+ * Tunes the JDK HTTP transport the SendSafely SDK uses. The SDK opens its connections through
+ * HttpURLConnection, which keeps idle keep-alive connections, and their TLS sessions, in a
+ * per-destination pool shared by the whole JVM. Sizing that pool to the CLI's concurrency lets
+ * back-to-back metadata calls reuse a warm connection instead of paying a new handshake each.
+ *
+ * <p>All settings are JVM system properties and must be applied before the first request. Values
+ * already given on the command line with -D are left alone.
+ */
+public class HttpTransport {
+    private HttpTransport() {
+    }
+
+    /**
+     * @param maxConnections Idle keep-alive connections kept per destination
+     * @param connectTimeoutMillis Connect timeout for every request, 0 for none
+     * @param readTimeoutMillis Read timeout for every request, 0 for none
+     * @param proxy A proxy as host:port or http://host:port, or null for a direct connection
+     */
+    public static void configure(int maxConnections, int connectTimeoutMillis,
+        int readTimeoutMillis, String proxy) {
+        setDefault("http.keepAlive", "true");
+        setDefault("http.maxConnections", Integer.toString(Math.max(1, maxConnections)));
+        setDefault("sun.net.client.defaultConnectTimeout", Integer.toString(connectTimeoutMillis));
+        setDefault("sun.net.client.defaultReadTimeout", Integer.toString(readTimeoutMillis));
+
+        if (proxy != null && !proxy.isEmpty()) {
+            URI uri = parseProxy(proxy);
+            String port = Integer.toString(uri.getPort() == -1 ? 80 : uri.getPort());
+
+            setDefault("http.proxyHost", uri.getHost());
+            setDefault("http.proxyPort", port);
+            setDefault("https.proxyHost", uri.getHost());
+            setDefault("https.proxyPort", port);
+        }
+    }
+
+    static URI parseProxy(String proxy) {
+        URI uri = URI.create(proxy.contains("://") ? proxy : "http://" + proxy);
+
+        if (uri.getHost() == null) {
+            throw new IllegalArgumentException("Proxy must be given as host:port, not '" + proxy + "'");
+        }
+
+        return uri;
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.sendsafely.cliapp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.PrintStream;
+
+/**
+ * Writes machine-readable output as newline-delimited JSON: one object per line, flushed as soon as
+ * it is written, so consumers can process packages, files and transfer events as they happen.
+ */
+public class NdjsonWriter {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final PrintStream out;
+
+    public NdjsonWriter(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Create an event object with the given "type" field, to be filled in and passed to write().
+     */
+    public ObjectNode event(String type) {
+        return mapper.createObjectNode().put("type", type);
+    }
+
+    /**
+     * Write the event as a single line.
+     */
+    public synchronized void write(ObjectNode event) {
+        try {
+            out.println(mapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            throw new CLIException("Failed to serialize output event", e);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,475 @@
+package com.sendsafely.cliapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A local spool of packages waiting to be sent, so they can be queued while SendSafely is
+ * unreachable and sent later. Each job is a directory holding copies of its files, a description
+ * of its recipients and message, and a write-ahead state log. A job is written under a draft name
+ * and renamed into place once complete, so a half-written job is never seen.
+ *
+ * <p>Every step of sending a job is appended to its state log, and forced to disk, as soon as it
+ * succeeds: the package being created, each file, recipient and message added to it, and finally
+ * its secure link. A job interrupted by a crash resumes from its log instead of starting over, so
+ * it never produces a second package. Once sent, a job is recorded in the outbox's sent log and its
+ * directory removed.
+ */
+public class Outbox {
+    static final String DRAFT_PREFIX = ".draft-";
+    static final String JOB_FILE = "job.json";
+    static final String STATE_LOG = "state.log";
+    static final String FILES_DIRECTORY = "files";
+    static final String SENT_LOG = "sent.log";
+    static final String LOCK_FILE = ".lock";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final File directory;
+
+    public Outbox(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Start writing a new job. Copy its files into {@link Draft#getFilesDirectory()}, then
+     * {@link Draft#commit(List, String) commit} it; a draft closed without committing is deleted.
+     */
+    public Draft draft() throws IOException {
+        create();
+
+        String id = String.format("%013d-%s", System.currentTimeMillis(),
+            UUID.randomUUID().toString().substring(0, 8));
+        File draft = new File(directory, DRAFT_PREFIX + id);
+        Files.createDirectories(new File(draft, FILES_DIRECTORY).toPath());
+
+        return new Draft(id, draft);
+    }
+
+    /**
+     * Take the outbox for sending, so two drains never send the same job.
+     *
+     * @return The locked lock file; closing it releases the outbox
+     * @throws IOException If another process is already draining the outbox
+     */
+    public FileChannel lock() throws IOException {
+        create();
+
+        FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = null;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by this process
+        } finally {
+            if (lock == null) {
+                IOUtils.closeQuietly(channel);
+            }
+        }
+
+        if (lock == null) {
+            throw new IOException("The outbox " + directory + " is already being drained");
+        }
+        return channel;
+    }
+
+    /**
+     * The jobs waiting to be sent, oldest first. Drafts left behind by an enqueue that died more
+     * than the given age ago are deleted.
+     */
+    public List<Job> jobs(Duration abandonedDraftAge) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        File[] children = directory.listFiles(File::isDirectory);
+
+        if (children == null) {
+            return jobs;
+        }
+
+        Arrays.sort(children);
+        long abandoned = System.currentTimeMillis() - abandonedDraftAge.toMillis();
+
+        for (File child : children) {
+            if (!child.getName().startsWith(DRAFT_PREFIX)) {
+                jobs.add(Job.load(this, child));
+            } else if (child.lastModified() < abandoned) {
+                FileUtils.deleteQuietly(child);
+            }
+        }
+
+        return jobs;
+    }
+
+    private void create() throws IOException {
+        Files.createDirectories(directory.toPath());
+        try {
+            // Jobs hold the files being sent and, once created, their package's keycode, so an
+            // outbox that already existed is restricted too
+            Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwx------"));
+        } catch (UnsupportedOperationException e) {
+            if (!directory.setReadable(false, false) || !directory.setReadable(true, true)
+                || !directory.setWritable(false, false) || !directory.setWritable(true, true)) {
+                throw new IOException("Failed to restrict outbox permissions");
+            }
+        }
+    }
+
+    /**
+     * Append a line to a log and force it to disk. A line torn by a crash has no newline, so one is
+     * added first; otherwise the new line would be glued onto the torn one and lost with it.
+     */
+    private static void append(Path file, JsonNode line) throws IOException {
+        String text = MAPPER.writeValueAsString(line) + "\n";
+
+        if (Files.exists(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                if (channel.size() > 0 && channel.read(last, channel.size() - 1) == 1
+                    && last.get(0) != '\n') {
+                    text = "\n" + text;
+                }
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static void sync(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can sync a directory; the rename is still atomic
+            if (!Files.isDirectory(path)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * A job being written.
+     */
+    public class Draft implements AutoCloseable {
+        private final String id;
+        private final File draft;
+        private boolean committed;
+
+        Draft(String id, File draft) {
+            this.id = id;
+            this.draft = draft;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Where the job's files go. They are sent in name order.
+         */
+        public File getFilesDirectory() {
+            return new File(draft, FILES_DIRECTORY);
+        }
+
+        /**
+         * Make the job visible to drains.
+         *
+         * @param recipients The recipients, or an empty list for the sender
+         * @param message The secure message, or null
+         */
+        public Job commit(List<String> recipients, String message) throws IOException {
+            File[] files = getFilesDirectory().listFiles(File::isFile);
+            if (files == null || files.length == 0) {
+                throw new IOException("An outbox job needs at least one file");
+            }
+            Arrays.sort(files);
+
+            ObjectNode job = MAPPER.createObjectNode();
+            job.put("created", Instant.now().toString());
+            recipients.forEach(job.putArray("recipients")::add);
+            job.put("message", message);
+            ArrayNode names = job.putArray("files");
+            for (File file : files) {
+                names.add(file.getName());
+                sync(file.toPath());
+            }
+
+            Path jobFile = new File(draft, JOB_FILE).toPath();
+            MAPPER.writeValue(jobFile.toFile(), job);
+            sync(jobFile);
+
+            File target = new File(directory, id);
+            try {
+                Files.move(draft.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(draft.toPath(), target.toPath());
+            }
+            sync(directory.toPath());
+            committed = true;
+
+            return Job.load(Outbox.this, target);
+        }
+
+        @Override
+        public void close() {
+            if (!committed) {
+                FileUtils.deleteQuietly(draft);
+            }
+        }
+    }
+
+    public enum State {
+        QUEUED, CREATED, UPLOADED, FINALIZED
+    }
+
+    /**
+     * A job waiting to be sent, together with how far sending it has got.
+     */
+    public static class Job {
+        private final Outbox outbox;
+        private final File directory;
+        private final List<String> recipients = new ArrayList<>();
+        private final String message;
+        private final List<File> files = new ArrayList<>();
+        private final boolean resumed;
+        private final Map<String, String> uploadedFiles = new LinkedHashMap<>();
+        private final Set<String> addedRecipients = new LinkedHashSet<>();
+        private volatile State state = State.QUEUED;
+        private volatile String packageId;
+        private volatile String keycode;
+        private volatile String rootDirectoryId;
+        private volatile boolean messageUploaded;
+        private volatile String secureLink;
+
+        private Job(Outbox outbox, File directory, JsonNode job) {
+            this.outbox = outbox;
+            this.directory = directory;
+
+            job.path("recipients").forEach(recipient -> recipients.add(recipient.asText()));
+            message = job.hasNonNull("message") ? job.get("message").asText() : null;
+            job.path("files").forEach(
+                name -> files.add(new File(new File(directory, FILES_DIRECTORY), name.asText())));
+
+            resumed = replay(new File(directory, STATE_LOG));
+        }
+
+        static Job load(Outbox outbox, File directory) throws IOException {
+            return new Job(outbox, directory, MAPPER.readTree(new File(directory, JOB_FILE)));
+        }
+
+        /**
+         * Apply every entry of the state log.
+         *
+         * @return Whether there were any, i.e. sending the job was started before
+         */
+        private boolean replay(File log) {
+            List<String> lines;
+            try {
+                lines = log.exists()
+                    ? Files.readAllLines(log.toPath(), StandardCharsets.UTF_8)
+                    : Collections.emptyList();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read " + log, e);
+            }
+
+            boolean any = false;
+            for (String line : lines) {
+                JsonNode entry;
+                try {
+                    entry = MAPPER.readTree(line);
+                } catch (IOException e) {
+                    // Only the last line can be torn, by a crash while appending it
+                    continue;
+                }
+                if (entry != null) {
+                    apply(entry);
+                    any = true;
+                }
+            }
+            return any;
+        }
+
+        private void apply(JsonNode entry) {
+            switch (entry.path("step").asText()) {
+                case "created":
+                    // A new package; whatever was added to an earlier one doesn't count
+                    uploadedFiles.clear();
+                    addedRecipients.clear();
+                    messageUploaded = false;
+                    state = State.CREATED;
+                    packageId = entry.path("packageId").asText();
+                    keycode = entry.path("keycode").asText();
+                    rootDirectoryId = entry.path("rootDirectoryId").asText(null);
+                    break;
+                case "file":
+                    uploadedFiles.put(entry.path("name").asText(), entry.path("fileId").asText());
+                    break;
+                case "recipient":
+                    addedRecipients.add(entry.path("email").asText());
+                    break;
+                case "message":
+                    messageUploaded = true;
+                    break;
+                case "uploaded":
+                    state = State.UPLOADED;
+                    break;
+                case "finalized":
+                    state = State.FINALIZED;
+                    secureLink = entry.path("secureLink").asText();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private synchronized void record(ObjectNode entry) throws IOException {
+            append(new File(directory, STATE_LOG).toPath(), entry.put("time", Instant.now().toString()));
+            apply(entry);
+        }
+
+        public void recordCreated(String packageId, String keycode, String rootDirectoryId)
+            throws IOException {
+            record(MAPPER.createObjectNode().put("step", "created").put("packageId", packageId)
+                .put("keycode", keycode).put("rootDirectoryId", rootDirectoryId));
+        }
+
+        public void recordFileUploaded(String name, String fileId) throws IOException {
+            record(MAPPER.createObjectNode().put("step", "file").put("name", name)
+                .put("fileId", fileId));
+        }
+
+        public void recordRecipientAdded(String email) throws IOException {
+            record(MAPPER.createObjectNode().put("step", "recipient").put("email", email));
+        }
+
+        public void recordMessageUploaded() throws IOException {
+            record(MAPPER.createObjectNode().put("step", "message"));
+        }
+
+        public void recordUploaded() throws IOException {
+            record(MAPPER.createObjectNode().put("step", "uploaded"));
+        }
+
+        public void recordFinalized(String secureLink) throws IOException {
+            record(MAPPER.createObjectNode().put("step", "finalized").put("secureLink", secureLink));
+        }
+
+        /**
+         * Record the sent job in the outbox's sent log and remove it. A crash in between at worst
+         * logs it twice.
+         */
+        public void complete() throws IOException {
+            if (state != State.FINALIZED) {
+                throw new IllegalStateException("Job " + getId() + " has not been sent");
+            }
+
+            ObjectNode sent = MAPPER.createObjectNode()
+                .put("time", Instant.now().toString())
+                .put("job", getId())
+                .put("packageId", packageId)
+                .put("secureLink", secureLink);
+            ArrayNode names = sent.putArray("files");
+            files.forEach(file -> names.add(file.getName()));
+
+            append(new File(outbox.directory, SENT_LOG).toPath(), sent);
+            FileUtils.deleteDirectory(directory);
+        }
+
+        public String getId() {
+            return directory.getName();
+        }
+
+        public List<String> getRecipients() {
+            return recipients;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public List<File> getFiles() {
+            return files;
+        }
+
+        /**
+         * Whether an earlier drain started sending the job, so the package may hold more than the
+         * log says: whatever was under way when it stopped.
+         */
+        public boolean isResumed() {
+            return resumed;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public String getPackageId() {
+            return packageId;
+        }
+
+        public String getKeycode() {
+            return keycode;
+        }
+
+        public String getRootDirectoryId() {
+            return rootDirectoryId;
+        }
+
+        /**
+         * File IDs of the files uploaded so far, by name.
+         */
+        public synchronized Map<String, String> getUploadedFiles() {
+            return new LinkedHashMap<>(uploadedFiles);
+        }
+
+        public synchronized Set<String> getAddedRecipients() {
+            return new LinkedHashSet<>(addedRecipients);
+        }
+
+        public boolean isMessageUploaded() {
+            return messageUploaded;
+        }
+
+        public String getSecureLink() {
+            return secureLink;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.sendsafely.cliapp;
+
+/**
+ * The formats the CLI can write its results in.
+ */
+public enum OutputFormat {
+    TEXT, NDJSON
+}
@@ -0,0 +1,141 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The name, size and SHA-256 digest of every file uploaded to a package. The manifest is appended
+ * to the package's secure message as a plain text block, one {@code <digest> <size> <name>} line
+ * per file, so recipients can check what they downloaded against what was sent, with this CLI or
+ * by hand.
+ */
+public class PackageManifest {
+    static final String BEGIN = "-----BEGIN SENDSAFELY MANIFEST-----";
+    static final String END = "-----END SENDSAFELY MANIFEST-----";
+
+    private static final Pattern LINE = Pattern.compile("([0-9a-f]{64}) (\\d+) (.+)");
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public synchronized void add(String name, long size, String sha256) {
+        entries.put(name, new Entry(size, sha256));
+    }
+
+    public synchronized void remove(String name) {
+        entries.remove(name);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * The given secure message with this manifest appended, or the manifest alone if there is no
+     * message.
+     */
+    public synchronized String appendTo(String message) {
+        StringBuilder text = new StringBuilder();
+
+        if (message != null && !message.isEmpty()) {
+            text.append(message).append(message.endsWith("\n") ? "\n" : "\n\n");
+        }
+
+        text.append(BEGIN).append('\n');
+        entries.forEach((name, entry) -> text.append(entry.sha256).append(' ')
+            .append(entry.size).append(' ').append(name).append('\n'));
+        text.append(END).append('\n');
+
+        return text.toString();
+    }
+
+    /**
+     * Read the manifest appended to a secure message.
+     *
+     * @return The manifest, or null if the message has none
+     */
+    public static PackageManifest parse(String message) {
+        int begin = message == null ? -1 : message.lastIndexOf(BEGIN);
+        if (begin < 0) {
+            return null;
+        }
+
+        int end = message.indexOf(END, begin);
+        if (end < 0) {
+            throw new IllegalArgumentException("The package manifest in the secure message is truncated");
+        }
+
+        PackageManifest manifest = new PackageManifest();
+        for (String line : message.substring(begin + BEGIN.length(), end).split("\r?\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            Matcher matcher = LINE.matcher(line);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Malformed package manifest line: " + line);
+            }
+            manifest.add(matcher.group(3), Long.parseLong(matcher.group(2)), matcher.group(1));
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Check a downloaded file against its manifest entry.
+     *
+     * @throws IOException If the file is not in the manifest or its size or digest differ
+     */
+    public void verify(String name, File file) throws IOException {
+        Entry entry = get(name);
+
+        if (entry == null) {
+            throw new IOException("File " + name + " is not listed in the package manifest");
+        }
+
+        if (file.length() != entry.size) {
+            throw new IOException("File " + name + " is " + file.length()
+                + " bytes but the package manifest lists " + entry.size);
+        }
+
+        String actual = sha256(file);
+        if (!actual.equals(entry.sha256)) {
+            throw new IOException("SHA-256 of " + name + " is " + actual
+                + " but the package manifest lists " + entry.sha256);
+        }
+    }
+
+    static String sha256(File file) throws IOException {
+        return com.google.common.io.Files.asByteSource(file).hash(Hashing.sha256()).toString();
+    }
+
+    public static class Entry {
+        private final long size;
+        private final String sha256;
+
+        Entry(long size, String sha256) {
+            this.size = size;
+            this.sha256 = sha256;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.sendsafely.cliapp;
+
+import com.sendsafely.Package;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Remembers package details and decrypted keycodes for the rest of a run, so every code path that
+ * needs them pays for the API round trip, and the keycode decryption, once per package. A lookup
+ * of a package that is still loading gets the same future as the lookup that started the load,
+ * and a failed load is forgotten so the next lookup tries again.
+ *
+ * <p>Every keycode is registered with the ErrorReporter so it is redacted from error output. The
+ * reporter has to keep the keycode string to find it in messages, and the SDK only accepts
+ * keycodes as strings, so the memo keeps the same string rather than a copy it could overwrite.
+ */
+public class PackageMemo {
+    private final ConcurrentMap<String, CompletableFuture<Package>> packages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<String>> keycodes = new ConcurrentHashMap<>();
+    private final ErrorReporter errorReporter;
+
+    public PackageMemo(ErrorReporter errorReporter) {
+        this.errorReporter = errorReporter;
+    }
+
+    /**
+     * The package's details, loaded on first use.
+     *
+     * @param loader Starts loading the details
+     */
+    public CompletableFuture<Package> getPackage(String packageId,
+        Supplier<CompletableFuture<Package>> loader) {
+        return memoize(packages, packageId, loader);
+    }
+
+    /**
+     * The package's decrypted keycode, loaded on first use.
+     *
+     * @param loader Starts loading the keycode
+     */
+    public CompletableFuture<String> getKeycode(String packageId,
+        Supplier<CompletableFuture<String>> loader) {
+        return memoize(keycodes, packageId, () -> loader.get().thenApply(keycode -> {
+            errorReporter.addSecret(keycode);
+            return keycode;
+        }));
+    }
+
+    /**
+     * Drop everything known about a package, e.g. once it has been archived.
+     */
+    public void forget(String packageId) {
+        packages.remove(packageId);
+        keycodes.remove(packageId);
+    }
+
+    /**
+     * Drop everything.
+     */
+    public void clear() {
+        packages.clear();
+        keycodes.clear();
+    }
+
+    private static <T> CompletableFuture<T> memoize(ConcurrentMap<String, CompletableFuture<T>> memo,
+        String packageId, Supplier<CompletableFuture<T>> loader) {
+        boolean[] started = {false};
+        // Loaders only start the load, so holding the map's lock while they run costs nothing
+        CompletableFuture<T> future = memo.computeIfAbsent(packageId, id -> {
+            started[0] = true;
+            return loader.get();
+        });
+
+        if (started[0]) {
+            future.whenComplete((result, error) -> {
+                if (error != null) {
+                    memo.remove(packageId, future);
+                }
+            });
+        }
+
+        return future;
+    }
+}
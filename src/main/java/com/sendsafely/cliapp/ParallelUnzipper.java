@@ -0,0 +1,266 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a zip on several threads. The central directory is read up front, which gives every
+ * entry's name and Unix permissions, so all target paths are checked against zip-slip and every
+ * directory is created before any file is written. Files are then inflated, written and given
+ * their permissions concurrently, and directory permissions are applied once everything is in
+ * place.
+ */
+public class ParallelUnzipper {
+    private static final int EOCD = 0x06054b50;
+    private static final int ZIP64_EOCD_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EOCD = 0x06064b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ASI_EXTRA = 0x756e;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final int parallelism;
+
+    /**
+     * @param parallelism The number of entries extracted at once
+     */
+    public ParallelUnzipper(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Extract every entry of a zip into a directory, which is created if needed.
+     */
+    public void unpack(File zip, File directory) throws IOException {
+        File root = directory.getCanonicalFile();
+        List<Entry> entries = readCentralDirectory(zip);
+        Set<File> directories = new TreeSet<>(Comparator.comparing(File::getPath));
+        directories.add(root);
+
+        for (Entry entry : entries) {
+            entry.target = resolve(root, entry.name);
+            if (entry.directory) {
+                directories.add(entry.target);
+            } else {
+                directories.add(entry.target.getParentFile());
+            }
+        }
+
+        // Sorted paths put every parent before its children
+        for (File dir : directories) {
+            Files.createDirectories(dir.toPath());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+            new ThreadFactoryBuilder().setNameFormat("ss-unzip-%d").setDaemon(true).build());
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            List<Future<?>> extractions = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (!entry.directory) {
+                    extractions.add(executor.submit(() -> extract(zipFile, entry)));
+                }
+            }
+
+            for (Future<?> extraction : extractions) {
+                await(extraction);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Directory permissions last, so read-only ones don't block writing their contents
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).directory) {
+                setPermissions(entries.get(i));
+            }
+        }
+    }
+
+    private Void extract(ZipFile zipFile, Entry entry) throws IOException {
+        ZipEntry zipEntry = zipFile.getEntry(entry.name);
+        if (zipEntry == null) {
+            throw new IOException("Zip entry " + entry.name + " is listed but cannot be read");
+        }
+
+        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+            Files.copy(in, entry.target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        setPermissions(entry);
+        return null;
+    }
+
+    /**
+     * The normalized target of an entry, refusing names that escape the directory (zip-slip).
+     */
+    static File resolve(File root, String name) throws IOException {
+        Path target = root.toPath().resolve(name).normalize();
+
+        if (!target.startsWith(root.toPath())) {
+            throw new IOException("Zip entry " + name + " is outside of the target directory");
+        }
+
+        return target.toFile();
+    }
+
+    private static void setPermissions(Entry entry) throws IOException {
+        if ((entry.mode & 0777) == 0) {
+            return;
+        }
+
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission permission : PosixFilePermission.values()) {
+            if ((entry.mode & 1 << (8 - permission.ordinal())) != 0) {
+                permissions.add(permission);
+            }
+        }
+
+        try {
+            Files.setPosixFilePermissions(entry.target.toPath(), permissions);
+        } catch (UnsupportedOperationException e) {
+            entry.target.setExecutable((entry.mode & 0100) != 0);
+            entry.target.setWritable((entry.mode & 0200) != 0);
+        }
+    }
+
+    private static void await(Future<?> extraction) throws IOException {
+        try {
+            extraction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while unzipping", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to extract zip entry", e.getCause());
+        }
+    }
+
+    /**
+     * Read the name and Unix mode of every entry from the central directory, following ZIP64
+     * records when the archive has them. Modes come from the external attributes of entries made
+     * on Unix, or from an ASi extra field.
+     */
+    static List<Entry> readCentralDirectory(File zip) throws IOException {
+        try (FileChannel in = FileChannel.open(zip.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            int tailLength = (int) Math.min(size, 22 + 0xFFFF);
+            ByteBuffer tail = read(in, size - tailLength, tailLength);
+
+            int eocd = -1;
+            for (int i = tailLength - 22; i >= 0; i--) {
+                if (tail.getInt(i) == EOCD) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) {
+                throw new IOException(zip + " is not a zip file");
+            }
+
+            long count = tail.getShort(eocd + 10) & 0xFFFF;
+            long directorySize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+            long directoryOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+
+            if (eocd >= 20 && tail.getInt(eocd - 20) == ZIP64_EOCD_LOCATOR) {
+                ByteBuffer record = read(in, tail.getLong(eocd - 20 + 8), 56);
+                if (record.getInt(0) != ZIP64_EOCD) {
+                    throw new IOException(zip + " has a damaged ZIP64 end of central directory");
+                }
+                count = record.getLong(32);
+                directorySize = record.getLong(40);
+                directoryOffset = record.getLong(48);
+            }
+
+            ByteBuffer directory = in.map(FileChannel.MapMode.READ_ONLY, directoryOffset,
+                directorySize).order(ByteOrder.LITTLE_ENDIAN);
+            List<Entry> entries = new ArrayList<>();
+            int position = 0;
+
+            for (long i = 0; i < count; i++) {
+                if (directory.getInt(position) != CENTRAL_HEADER) {
+                    throw new IOException(zip + " has a damaged central directory");
+                }
+
+                int madeBy = directory.getShort(position + 4) & 0xFFFF;
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                long externalAttributes = directory.getInt(position + 38) & ZIP64_MAGIC;
+
+                byte[] name = new byte[nameLength];
+                directory.position(position + 46);
+                directory.get(name);
+
+                int mode = madeBy >> 8 == 3 ? (int) (externalAttributes >> 16) : 0;
+                if (mode == 0) {
+                    mode = asiMode(directory, position + 46 + nameLength, extraLength);
+                }
+
+                entries.add(new Entry(new String(name, StandardCharsets.UTF_8), mode));
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+
+            return entries;
+        }
+    }
+
+    private static int asiMode(ByteBuffer directory, int start, int length) {
+        int position = start;
+        while (position + 4 <= start + length) {
+            int id = directory.getShort(position) & 0xFFFF;
+            int size = directory.getShort(position + 2) & 0xFFFF;
+            if (id == ASI_EXTRA && size >= 6) {
+                return directory.getShort(position + 8) & 0xFFFF;
+            }
+            position += 4 + size;
+        }
+        return 0;
+    }
+
+    private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of zip file");
+            }
+        }
+        return buffer;
+    }
+
+    static class Entry {
+        final String name;
+        final int mode;
+        final boolean directory;
+        File target;
+
+        Entry(String name, int mode) {
+            this.name = name;
+            this.mode = mode;
+            this.directory = name.endsWith("/");
+        }
+    }
+}
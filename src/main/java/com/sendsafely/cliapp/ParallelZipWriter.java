@@ -0,0 +1,578 @@
+package com.sendsafely.cliapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Zips a directory tree using every core. Files are cut into blocks that are deflated
+ * independently on a fork/join pool, the way pigz does it: every block but an entry's last ends
+ * with a sync flush, so the compressed blocks concatenate into one valid deflate stream, and the
+ * per-block CRCs are combined into the entry's CRC. Blocks are written in order to a single
+ * standard zip, with ZIP64 records wherever sizes, offsets or the entry count need them, so the
+ * output opens with any unzip tool.
+ *
+ * <p>Entries that would not shrink are stored instead of deflated: empty files, files whose
+ * extension marks an already compressed format, and files whose first few KB look random. That
+ * skips the most expensive part of zipping trees of media and archives, for almost no size cost.
+ *
+ * <p>Only a bounded window of blocks is in flight at once, so memory use depends on the block size
+ * and parallelism, not on the size of the tree.
+ */
+public class ParallelZipWriter {
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    // Entries this large get ZIP64 sizes up front, with room for deflate's worst-case expansion
+    private static final long ZIP64_ENTRY_THRESHOLD = 0xF0000000L;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int MADE_BY_UNIX = 3 << 8;
+    private static final int SAMPLE_SIZE = 4096;
+    // Bits per byte above which a sample is treated as already compressed; text is around 4-5
+    static final double ENTROPY_THRESHOLD = 7.5;
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+        "7z", "aac", "apk", "avi", "avif", "br", "bz2", "cab", "deb", "docx", "flac", "gif", "gz",
+        "heic", "jar", "jpeg", "jpg", "lz", "lz4", "lzma", "m4a", "m4v", "mkv", "mov", "mp3", "mp4",
+        "ogg", "opus", "orc", "parquet", "png", "pptx", "rar", "rpm", "tbz2", "tgz", "txz", "war",
+        "webm", "webp", "whl", "xlsx", "xz", "zip", "zst"));
+
+    private final int parallelism;
+    private final int level;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /**
+     * @param parallelism The number of blocks compressed at once
+     * @param level The deflate level, 1 to 9, -1 for the default, or 0 to store every entry
+     */
+    public ParallelZipWriter(int parallelism, int level) {
+        this.parallelism = Math.max(1, parallelism);
+        this.level = level;
+    }
+
+    void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Zip the contents of a directory, with entry names relative to it.
+     *
+     * @return The number of bytes read from the directory's files
+     */
+    public long pack(File directory, File zipFile) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        collect(directory, "", entries, new HashSet<>());
+
+        List<Block> blocks = new ArrayList<>();
+        for (Entry entry : entries) {
+            long offset = 0;
+            do {
+                int length = (int) Math.min(blockSize, entry.size - offset);
+                blocks.add(new Block(entry, offset, length, offset + length >= entry.size));
+                offset += length;
+            } while (offset < entry.size);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<Future<Block>> window = new ArrayDeque<>();
+        long bytesRead = 0;
+
+        try (FileChannel out = FileChannel.open(zipFile.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int next = 0;
+
+            while (next < blocks.size() || !window.isEmpty()) {
+                while (next < blocks.size() && window.size() < parallelism * 2) {
+                    Block block = blocks.get(next++);
+                    window.add(pool.submit(() -> compress(block)));
+                }
+
+                Block block = await(window.remove());
+                Entry entry = block.entry;
+
+                if (block.offset == 0) {
+                    entry.headerOffset = out.position();
+                    write(out, localHeader(entry));
+                }
+
+                write(out, ByteBuffer.wrap(block.data));
+                entry.crc = block.offset == 0
+                    ? block.crc : crc32Combine(entry.crc, block.crc, block.length);
+                entry.compressedSize += block.data.length;
+                bytesRead += block.length;
+
+                if (block.last) {
+                    ByteBuffer patch = localHeaderSizes(entry);
+                    out.write(patch, entry.headerOffset + 14);
+                    if (entry.zip64) {
+                        out.write(zip64LocalExtra(entry),
+                            entry.headerOffset + 30 + entry.name.length + 4);
+                    }
+                }
+            }
+
+            writeCentralDirectory(out, entries);
+        } finally {
+            for (Future<Block> pending : window) {
+                pending.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+
+        return bytesRead;
+    }
+
+    /**
+     * An upper bound on the size of the zip of a directory: every file stored as it is, plus
+     * headers.
+     */
+    public static long estimateSize(File directory) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        collect(directory, "", entries, new HashSet<>());
+
+        long size = 22 + 76;
+        for (Entry entry : entries) {
+            // Local and central headers with ZIP64 extras, plus a sync flush marker per block
+            size += entry.size + 2 * entry.name.length + 120 + (entry.size / (64 * 1024) + 1) * 5;
+        }
+        return size;
+    }
+
+    /**
+     * Walk a directory. Symbolic links to directories are followed, except a link back to a
+     * directory being walked, which would otherwise recurse forever.
+     *
+     * @param walking The real paths of the directory and the ones above it
+     */
+    private static void collect(File directory, String prefix, List<Entry> entries,
+        Set<Path> walking) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            throw new IOException("Cannot list directory " + directory);
+        }
+        Arrays.sort(children, Comparator.comparing(File::getName));
+
+        Path real = directory.toPath().toRealPath();
+        walking.add(real);
+
+        for (File child : children) {
+            String name = prefix + child.getName();
+
+            if (child.isDirectory()) {
+                if (walking.contains(child.toPath().toRealPath())) {
+                    continue;
+                }
+
+                entries.add(new Entry(name + "/", null, 0, child.lastModified(), mode(child, true)));
+                collect(child, name + "/", entries, walking);
+            } else {
+                entries.add(new Entry(name, child, child.length(), child.lastModified(),
+                    mode(child, false)));
+            }
+        }
+
+        walking.remove(real);
+    }
+
+    private Block compress(Block block) throws IOException {
+        if (block.entry.file == null) {
+            block.data = new byte[0];
+            return block;
+        }
+
+        byte[] input = new byte[block.length];
+        try (FileChannel in = FileChannel.open(block.entry.file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(input);
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, block.offset + buffer.position()) < 0) {
+                    throw new IOException(block.entry.file + " changed while it was being zipped");
+                }
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(input, 0, input.length);
+        block.crc = crc.getValue();
+
+        if (method(block.entry) == STORED) {
+            block.data = input;
+            return block;
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            deflater.setInput(input);
+
+            if (block.last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+
+            block.data = compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+
+        return block;
+    }
+
+    /**
+     * The entry's compression method, chosen the first time one of its blocks asks for it.
+     */
+    private int method(Entry entry) throws IOException {
+        synchronized (entry) {
+            if (entry.method < 0) {
+                entry.method = level == 0 || entry.size == 0 || isCompressed(entry.file)
+                    ? STORED : DEFLATED;
+            }
+            return entry.method;
+        }
+    }
+
+    /**
+     * Whether a file looks already compressed, from its extension or a sample of its first bytes.
+     */
+    static boolean isCompressed(File file) throws IOException {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0
+            && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+
+        byte[] sample = new byte[SAMPLE_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(sample);
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                // Keep reading until the sample is full or the file ends
+            }
+        }
+
+        return !buffer.hasRemaining() && entropy(sample, sample.length) > ENTROPY_THRESHOLD;
+    }
+
+    /**
+     * The Shannon entropy of the bytes, in bits per byte: 8 for uniformly random data.
+     */
+    static double entropy(byte[] data, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private ByteBuffer localHeader(Entry entry) {
+        ByteBuffer header = buffer(30 + entry.name.length + (entry.zip64 ? 20 : 0));
+        header.putInt(0x04034b50);
+        header.putShort((short) versionNeeded(entry.zip64));
+        header.putShort((short) UTF8_FLAG);
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        header.putInt(0);
+        header.putInt(entry.zip64 ? (int) ZIP64_MAGIC : 0);
+        header.putInt(entry.zip64 ? (int) ZIP64_MAGIC : 0);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (entry.zip64 ? 20 : 0));
+        header.put(entry.name);
+        if (entry.zip64) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(0);
+            header.putLong(0);
+        }
+        header.flip();
+        return header;
+    }
+
+    private ByteBuffer localHeaderSizes(Entry entry) {
+        ByteBuffer sizes = buffer(12);
+        sizes.putInt((int) entry.crc);
+        sizes.putInt(entry.zip64 ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+        sizes.putInt(entry.zip64 ? (int) ZIP64_MAGIC : (int) entry.size);
+        sizes.flip();
+        return sizes;
+    }
+
+    private ByteBuffer zip64LocalExtra(Entry entry) {
+        ByteBuffer extra = buffer(16);
+        extra.putLong(entry.size);
+        extra.putLong(entry.compressedSize);
+        extra.flip();
+        return extra;
+    }
+
+    private void writeCentralDirectory(FileChannel out, List<Entry> entries) throws IOException {
+        long start = out.position();
+
+        for (Entry entry : entries) {
+            boolean zip64Offset = entry.headerOffset >= ZIP64_MAGIC;
+            int extraLength = (entry.zip64 ? 16 : 0) + (zip64Offset ? 8 : 0);
+            extraLength += extraLength > 0 ? 4 : 0;
+
+            ByteBuffer header = buffer(46 + entry.name.length + extraLength);
+            header.putInt(0x02014b50);
+            header.putShort((short) (MADE_BY_UNIX | versionNeeded(extraLength > 0)));
+            header.putShort((short) versionNeeded(extraLength > 0));
+            header.putShort((short) UTF8_FLAG);
+            header.putShort((short) entry.method);
+            header.putInt(entry.dosTime);
+            header.putInt((int) entry.crc);
+            header.putInt(entry.zip64 ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+            header.putInt(entry.zip64 ? (int) ZIP64_MAGIC : (int) entry.size);
+            header.putShort((short) entry.name.length);
+            header.putShort((short) extraLength);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(entry.mode << 16 | (entry.file == null ? 0x10 : 0));
+            header.putInt(zip64Offset ? (int) ZIP64_MAGIC : (int) entry.headerOffset);
+            header.put(entry.name);
+            if (extraLength > 0) {
+                header.putShort((short) 0x0001);
+                header.putShort((short) (extraLength - 4));
+                if (entry.zip64) {
+                    header.putLong(entry.size);
+                    header.putLong(entry.compressedSize);
+                }
+                if (zip64Offset) {
+                    header.putLong(entry.headerOffset);
+                }
+            }
+            header.flip();
+            write(out, header);
+        }
+
+        long end = out.position();
+        long size = end - start;
+        boolean zip64 = entries.size() >= 0xFFFF || size >= ZIP64_MAGIC || start >= ZIP64_MAGIC;
+
+        if (zip64) {
+            ByteBuffer record = buffer(56 + 20);
+            record.putInt(0x06064b50);
+            record.putLong(44);
+            record.putShort((short) (MADE_BY_UNIX | 45));
+            record.putShort((short) 45);
+            record.putInt(0);
+            record.putInt(0);
+            record.putLong(entries.size());
+            record.putLong(entries.size());
+            record.putLong(size);
+            record.putLong(start);
+
+            record.putInt(0x07064b50);
+            record.putInt(0);
+            record.putLong(end);
+            record.putInt(1);
+            record.flip();
+            write(out, record);
+        }
+
+        ByteBuffer record = buffer(22);
+        record.putInt(0x06054b50);
+        record.putShort((short) 0);
+        record.putShort((short) 0);
+        record.putShort((short) (zip64 ? 0xFFFF : entries.size()));
+        record.putShort((short) (zip64 ? 0xFFFF : entries.size()));
+        record.putInt(zip64 ? (int) ZIP64_MAGIC : (int) size);
+        record.putInt(zip64 ? (int) ZIP64_MAGIC : (int) start);
+        record.putShort((short) 0);
+        record.flip();
+        write(out, record);
+    }
+
+    private static int versionNeeded(boolean zip64) {
+        return zip64 ? 45 : 20;
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static Block await(Future<Block> block) throws IOException {
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while zipping", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to compress zip entry", e.getCause());
+        }
+    }
+
+    private static int mode(File file, boolean directory) {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file.toPath());
+            int mode = 0;
+            for (PosixFilePermission permission : permissions) {
+                mode |= 1 << (8 - permission.ordinal());
+            }
+            return (directory ? 040000 : 0100000) | mode;
+        } catch (UnsupportedOperationException | IOException e) {
+            return directory ? 040755 : file.canExecute() ? 0100755 : 0100644;
+        }
+    }
+
+    private static int dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis),
+            ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21
+            | time.getDayOfMonth() << 16 | time.getHour() << 11 | time.getMinute() << 5
+            | time.getSecond() >> 1;
+    }
+
+    /**
+     * The CRC-32 of two byte sequences joined together, from the CRC of each and the length of the
+     * second (zlib's crc32_combine).
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+
+            if (length2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    private static class Entry {
+        final byte[] name;
+        final File file;
+        final long size;
+        final int dosTime;
+        final int mode;
+        final boolean zip64;
+        int method;
+        long headerOffset;
+        long crc;
+        long compressedSize;
+
+        Entry(String name, File file, long size, long lastModified, int mode) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+            this.size = size;
+            this.dosTime = dosTime(lastModified);
+            this.mode = mode;
+            this.zip64 = size >= ZIP64_ENTRY_THRESHOLD;
+            this.method = file == null ? STORED : -1;
+        }
+    }
+
+    private static class Block {
+        final Entry entry;
+        final long offset;
+        final int length;
+        final boolean last;
+        long crc;
+        byte[] data;
+
+        Block(Entry entry, long offset, int length, boolean last) {
+            this.entry = entry;
+            this.offset = offset;
+            this.length = length;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.sendsafely.cliapp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event spanning a single phase of a CLI run, such as an upload or a keycode
+ * lookup. Only PhaseRecorder creates these, so nothing touches jdk.jfr unless recording was requested.
+ */
+@Name("com.sendsafely.cliapp.Phase")
+@Label("SendSafely CLI Phase")
+@Category({"SendSafely", "CLI"})
+@Description("A login, package, transfer or archive phase of the SendSafely CLI")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Package ID Hash")
+    @Description("Truncated SHA-256 of the package ID")
+    String packageIdHash;
+
+    @Label("File Name")
+    String fileName;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    static PhaseEvent begin(String phase, String packageIdHash, String fileName) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.packageIdHash = packageIdHash;
+        event.fileName = fileName;
+        event.begin();
+        return event;
+    }
+
+    void finish(long bytes) {
+        this.bytes = bytes;
+        end();
+        commit();
+    }
+}
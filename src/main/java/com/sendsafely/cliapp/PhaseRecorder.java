@@ -0,0 +1,128 @@
+package com.sendsafely.cliapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+import com.google.common.hash.Hashing;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Wraps CLI phases in Java Flight Recorder events so allocation and CPU samples can be attributed to
+ * them. Until a recording is started every phase is a shared no-op, so the CLI pays nothing for it.
+ *
+ * <p>jdk.jfr only ships with Java 8u262 and later. This class names its types but only touches them
+ * once startRecording has checked they exist, so older runtimes can still load it.
+ */
+public class PhaseRecorder {
+    private static final Phase NO_OP = new Phase(null);
+
+    private final ErrorReporter errorReporter;
+    private Recording recording;
+    private volatile boolean enabled;
+
+    public PhaseRecorder(ErrorReporter errorReporter) {
+        this.errorReporter = errorReporter;
+    }
+
+    /**
+     * Start a profiling recording that is written to the given file when stopped.
+     *
+     * @param destination The .jfr file to write the recording to
+     */
+    public void startRecording(File destination) throws IOException {
+        if (!isAvailable()) {
+            throw new IOException(
+                "Java Flight Recorder is not available in this Java runtime; --jfr needs Java 8u262 or later");
+        }
+
+        try {
+            recording = new Recording(Configuration.getConfiguration("profile"));
+        } catch (ParseException e) {
+            throw new IOException("Failed to load the JFR profile configuration", e);
+        }
+        recording.setName("ss");
+        recording.setToDisk(true);
+        recording.setDestination(destination.toPath());
+        recording.enable(PhaseEvent.class);
+        recording.start();
+        enabled = true;
+    }
+
+    /**
+     * Stop the current recording, if any, and write it to its destination.
+     */
+    public void stopRecording() {
+        if (recording == null) {
+            return;
+        }
+
+        enabled = false;
+        try {
+            recording.stop();
+        } finally {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    /**
+     * Begin a phase. Close the returned Phase when the phase has finished.
+     *
+     * @param phase The name of the phase, e.g. "upload"
+     * @param packageId The package being worked on, or null. Only a hash of it is recorded.
+     * @param fileName The file being worked on, or null. It is sanitized before being recorded.
+     */
+    public Phase begin(String phase, String packageId, String fileName) {
+        if (!enabled) {
+            return NO_OP;
+        }
+
+        return new Phase(PhaseEvent.begin(phase, hashPackageId(packageId),
+            fileName == null ? null : errorReporter.sanitize(fileName)));
+    }
+
+    static String hashPackageId(String packageId) {
+        if (packageId == null) {
+            return null;
+        }
+
+        return Hashing.sha256().hashString(packageId, StandardCharsets.UTF_8).toString()
+            .substring(0, 16);
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Recording");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A running phase. The byte count is recorded with the event when the phase is closed.
+     */
+    public static class Phase implements AutoCloseable {
+        private final PhaseEvent event;
+        private long bytes;
+
+        private Phase(PhaseEvent event) {
+            this.event = event;
+        }
+
+        public void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (event != null) {
+                event.finish(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Prepares a list of items on a background thread, in order, while the caller consumes the ones
+ * already prepared: a two-stage pipeline connected by a bounded queue. Preparing the next item
+ * overlaps consuming the current one, and once the queue is full preparation waits, so no more
+ * than the queue depth of prepared items exist at once besides the one being consumed.
+ *
+ * <p>Preparation stops at the first failure, which is handed to the caller in that item's place.
+ * Closing the prefetcher stops preparation and closes every prepared item not taken.
+ *
+ * @param <T> The items
+ * @param <R> The prepared items, closed once consumed
+ */
+public class Prefetcher<T, R extends AutoCloseable> implements AutoCloseable {
+    private final BlockingQueue<Slot<R>> prepared = new LinkedBlockingQueue<>();
+    // A permit per place in the queue, taken before preparing so waiting items aren't prepared yet
+    private final Semaphore places;
+    private final ExecutorService executor;
+    private volatile boolean closed;
+    private int remaining;
+
+    /**
+     * @param name The stage name, for the thread name
+     * @param depth Items prepared ahead of the one being consumed, at least 1
+     * @param items The items, prepared in order
+     * @param preparation Prepares an item
+     */
+    public Prefetcher(String name, int depth, List<T> items, Preparation<T, R> preparation) {
+        this.places = new Semaphore(Math.max(1, depth));
+        this.remaining = items.size();
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("ss-" + name + "-%d").setDaemon(true).build());
+
+        executor.execute(() -> {
+            try {
+                for (T item : items) {
+                    try {
+                        places.acquire();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    Slot<R> slot;
+                    try {
+                        slot = new Slot<>(preparation.prepare(item), null);
+                    } catch (Exception e) {
+                        slot = new Slot<>(null, e);
+                    }
+
+                    prepared.add(slot);
+                    if (closed) {
+                        // Closed while this item was being prepared
+                        discardPrepared();
+                        return;
+                    }
+                    if (slot.failure != null) {
+                        return;
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+        });
+    }
+
+    /**
+     * Take the next prepared item, waiting for it if necessary.
+     *
+     * @return The item, or null once every item has been taken
+     * @throws Exception The failure preparing the item
+     */
+    public R next() throws Exception {
+        if (remaining == 0) {
+            return null;
+        }
+
+        Slot<R> slot = prepared.take();
+        places.release();
+        remaining = slot.failure == null ? remaining - 1 : 0;
+
+        if (slot.failure != null) {
+            throw slot.failure;
+        }
+        return slot.result;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        discardPrepared();
+    }
+
+    private void discardPrepared() {
+        Slot<R> slot;
+        while ((slot = prepared.poll()) != null) {
+            closeQuietly(slot.result);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Only temporary files are left behind, and the staging area sweeps those
+        }
+    }
+
+    /**
+     * Prepares one item.
+     */
+    @FunctionalInterface
+    public interface Preparation<T, R> {
+        R prepare(T item) throws Exception;
+    }
+
+    private static class Slot<R> {
+        final R result;
+        final Exception failure;
+
+        Slot(R result, Exception failure) {
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+}
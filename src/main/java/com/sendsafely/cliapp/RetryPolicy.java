@@ -0,0 +1,177 @@
+package com.sendsafely.cliapp;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Retries idempotent API operations that fail transiently (timeouts, dropped connections, 5xx
+ * responses) with exponential backoff and jitter. Every retry draws from a budget shared by the whole
+ * run, so a flaky connection cannot stall the CLI indefinitely.
+ */
+public class RetryPolicy {
+    private static final Pattern TRANSIENT_MESSAGE = Pattern.compile(
+        "(?i)(timed? ?out|connection reset|broken pipe|response code: 5\\d\\d|\\bHTTP 5\\d\\d\\b"
+            + "|service unavailable|bad gateway|gateway timeout)");
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double jitter;
+    private final Map<String, Integer> retryCounts = new TreeMap<>();
+    private long remainingBudgetMillis;
+    private Listener listener = (operation, attempt, delayMillis, error) -> {};
+
+    /**
+     * @param maxAttempts The maximum number of attempts per operation, including the first
+     * @param initialBackoffMillis The delay before the first retry. It doubles for every retry.
+     * @param maxBackoffMillis The upper bound for a single delay
+     * @param jitter The fraction (0 to 1) of each delay that is randomized
+     * @param budgetMillis The total time the run may spend waiting between retries
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+        double jitter, long budgetMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Retry attempts must be at least 1");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Retry jitter must be between 0 and 1");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = Math.max(0, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+        this.jitter = jitter;
+        this.remainingBudgetMillis = Math.max(0, budgetMillis);
+    }
+
+    /**
+     * A policy that runs every operation exactly once.
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy(1, 0, 0, 0, 0);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Run the operation, retrying transient failures. Operations must be idempotent, or be made
+     * idempotent by the caller (e.g. by discarding partial state at the start of each attempt).
+     * Operations throwing two checked exception types need explicit type arguments.
+     *
+     * @param name The operation name used in retry messages and metrics
+     * @param operation The operation to run
+     * @return The result of the first successful attempt
+     */
+    public <T, E1 extends Exception, E2 extends Exception> T call(String name,
+        Operation<T, E1, E2> operation) throws E1, E2 {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return operation.run();
+            } catch (Exception e) {
+                if (attempt >= maxAttempts || !isTransient(e)) {
+                    throw RetryPolicy.<RuntimeException>rethrow(e);
+                }
+
+                long delay = nextDelay(attempt);
+                if (delay < 0) {
+                    throw RetryPolicy.<RuntimeException>rethrow(e);
+                }
+
+                recordRetry(name);
+                listener.onRetry(name, attempt + 1, delay, e);
+                sleep(delay, e);
+            }
+        }
+    }
+
+    /**
+     * Whether the failure, or anything in its cause chain, looks like a transient network or server
+     * error.
+     */
+    public static boolean isTransient(Throwable error) {
+        Set<Throwable> visited = new HashSet<>();
+        for (Throwable current = error; current != null && visited.add(current);
+            current = current.getCause()) {
+            if (current instanceof InterruptedException) {
+                return false;
+            }
+            if (current instanceof IOException && !(current instanceof FileNotFoundException)) {
+                return true;
+            }
+            if (current.getMessage() != null
+                && TRANSIENT_MESSAGE.matcher(current.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The number of retries performed so far, by operation name.
+     */
+    public synchronized Map<String, Integer> getRetryCounts() {
+        return new TreeMap<>(retryCounts);
+    }
+
+    public synchronized int getTotalRetries() {
+        return retryCounts.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private synchronized long nextDelay(int attempt) {
+        long base = initialBackoffMillis << Math.min(attempt - 1, 30);
+        base = Math.min(maxBackoffMillis, base);
+        long delay = base - (long) (base * jitter * ThreadLocalRandom.current().nextDouble());
+
+        if (delay > remainingBudgetMillis) {
+            return -1;
+        }
+
+        remainingBudgetMillis -= delay;
+        return delay;
+    }
+
+    private synchronized void recordRetry(String name) {
+        retryCounts.merge(name, 1, Integer::sum);
+    }
+
+    private static void sleep(long delay, Exception cause) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CLIException("Interrupted while waiting to retry", cause);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <X extends Exception> X rethrow(Exception error) throws X {
+        // Operation.run() can only throw E1, E2 or unchecked exceptions, so rethrowing the original
+        // exception preserves the caller's checked exception contract.
+        throw (X) error;
+    }
+
+    /**
+     * An API call that may be attempted more than once.
+     */
+    @FunctionalInterface
+    public interface Operation<T, E1 extends Exception, E2 extends Exception> {
+        T run() throws E1, E2;
+    }
+
+    /**
+     * Notified before every retry, e.g. to report it in the progress output.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onRetry(String operation, int attempt, long delayMillis, Exception error);
+    }
+}
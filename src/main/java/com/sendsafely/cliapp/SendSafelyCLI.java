@@ -3,27 +3,43 @@ package com.sendsafely.cliapp;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.apache.commons.io.FileUtils;
 import org.bouncycastle.openpgp.PGPException;
 import org.fusesource.jansi.AnsiConsole;
-import org.zeroturnaround.zip.ZipUtil;
 
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -32,14 +48,17 @@ import picocli.CommandLine.Parameters;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableMap;
 import com.sendsafely.Package;
 import com.sendsafely.Privatekey;
 import com.sendsafely.Recipient;
 import com.sendsafely.SendSafely;
+import com.sendsafely.dto.PackageReference;
 import com.sendsafely.dto.PackageURL;
 import com.sendsafely.dto.UserInformation;
+import com.sendsafely.enums.PackageState;
 import com.sendsafely.exceptions.ApproverRequiredException;
 import com.sendsafely.exceptions.CreatePackageFailedException;
 import com.sendsafely.exceptions.DeletePackageException;
@@ -61,7 +80,6 @@ import com.sendsafely.file.DefaultFileManager;
 import com.sendsafely.file.FileManager;
 
 import jline.TerminalFactory;
-import me.tongfei.progressbar.ProgressBar;
 
 /**
  * A small CLI application for interfacing with the SendSafely API.
@@ -80,16 +98,52 @@ class SendSafelyCLI implements Callable<Integer> {
     private boolean checkFile;
     private String publicKeyId;
     private String armoredKey;
+    private volatile Privatekey privateKey;
     private String apiKey;
     private String apiSecret;
     private final ErrorReporter errorReporter;
+    private final PhaseRecorder phaseRecorder;
+    private final PackageMemo packageMemo;
+    private RetryPolicy retryPolicy;
+    private AdaptiveLimiter concurrencyLimiter;
+    private ExecutorService asyncExecutor;
+    private AsyncSendSafely asyncApi;
+    private String lastSecureLink;
+    private long splitBytes;
+    private NdjsonWriter ndjson;
+    private volatile boolean concurrentTransfers;
+    private StagingArea stagingArea = new StagingArea(null, 0);
+    private final PackageManifest uploadManifest = new PackageManifest();
+    private final BackgroundJobs backgroundUploads;
+    // Pings every 4 seconds, under the JDK's 5 second keep-alive default, for up to a minute
+    private final ConnectionWarmer connectionWarmer = new ConnectionWarmer(4000, 15);
     private final File credentialsFile;
 
     private Stack<Runnable> undoActions;
 
     private static final File defaultCredsHomeDirectory =
         new File(System.getProperty("user.home"), ".config");
-    private static final File defaultCredsFile = new File(defaultCredsHomeDirectory, ".ss-creds.json");
+    static final File defaultCredsFile = new File(defaultCredsHomeDirectory, ".ss-creds.json");
+    private static final long maxRetryBackoffMillis = 30_000;
+    // Parts much smaller than this spend more on per-file API calls than they gain
+    private static final long minSplitBytes = 16L << 20;
+    private static final String defaultHost = "https://app.sendsafely.com";
+    private static final String stdinFileName = "-";
+
+    @Option(names = {"--host"},
+        description = "SendSafely host URL (default: $SS_HOST or " + defaultHost + ").")
+    private String host = Objects.toString(System.getenv("SS_HOST"), defaultHost);
+
+    @Option(names = {"--proxy"}, description = "HTTP(S) proxy as host:port.")
+    private String proxy;
+
+    @Option(names = {"--connect-timeout"},
+        description = "Seconds to wait for a connection to the API (default: ${DEFAULT-VALUE}).")
+    private int connectTimeoutSeconds = 30;
+
+    @Option(names = {"--read-timeout"},
+        description = "Seconds to wait for an API response (default: ${DEFAULT-VALUE}).")
+    private int readTimeoutSeconds = 120;
 
     @Option(names = {"-mf", "--message-file"}, description = "Package secure message from a file.")
     private File messageFile;
@@ -103,17 +157,78 @@ class SendSafelyCLI implements Callable<Integer> {
     @Option(names = {"--debug"}, description = "Print stack traces for failures.")
     private boolean debug;
 
+    @Option(names = {"--jfr"},
+        description = "Record a Java Flight Recorder profile of this run to the given file.")
+    private File jfrFile;
+
+    @Option(names = {"--retry-attempts"},
+        description = "Attempts per API call that fails transiently (default: ${DEFAULT-VALUE}).")
+    private int retryAttempts = 4;
+
+    @Option(names = {"--retry-backoff"},
+        description = "Initial retry delay in milliseconds, doubled per retry (default: ${DEFAULT-VALUE}).")
+    private long retryBackoffMillis = 500;
+
+    @Option(names = {"--retry-jitter"},
+        description = "Fraction of each retry delay that is randomized (default: ${DEFAULT-VALUE}).")
+    private double retryJitter = 0.5;
+
+    @Option(names = {"--retry-budget"},
+        description = "Total seconds a run may spend waiting to retry (default: ${DEFAULT-VALUE}).")
+    private long retryBudgetSeconds = 120;
+
+    @Option(names = {"--max-concurrency"},
+        description = "Maximum concurrent API calls; the limit adapts below it (default: ${DEFAULT-VALUE}).")
+    private int maxConcurrency = 8;
+
+    @Option(names = {"--output"},
+        description = "Output format: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}).")
+    private OutputFormat output = OutputFormat.TEXT;
+
+    @Option(names = {"--progress-events"},
+        description = "With --output ndjson, also emit transfer progress events.")
+    private boolean progressEvents;
+
     @Option(names = {"-l", "--list"}, description = "List package history.")
     private boolean list;
 
     @Option(names = {"--pop"}, description = "Download the most recent package's files.")
     private boolean pop;
 
+    @Option(names = {"--pop-all"},
+        description = "Download every active package into a directory named after it, then archive it.")
+    private boolean popAll;
+
+    @Option(names = {"--drain-concurrency"},
+        description = "With --pop-all, packages downloaded at once; with --drain, packages uploaded "
+            + "at once (default: ${DEFAULT-VALUE}).")
+    private int drainConcurrency = 2;
+
     @Option(names = {"-d", "--download"}, description = "Download package files.")
     private String downloadPackageId;
 
-    @Option(names = {"--archive"}, description = "Archive a package.")
-    private String archivePackageId;
+    @Option(names = {"--file"}, description = "Only download the package file with this name.")
+    private String downloadFileName;
+
+    @Option(names = {"--stdout"},
+        description = "Write the downloaded file to stdout instead of the current directory.")
+    private boolean toStdout;
+
+    @Option(names = {"--archive"}, arity = "0..*",
+        description = "Archive packages by ID, ID prefix ending in '*', or @index. "
+            + "Without IDs, archive every package matching --older-than and --state.")
+    private String[] archivePackageIds;
+
+    @Option(names = {"--older-than"},
+        description = "With --archive, only packages older than this age, e.g. 30d, 12h.")
+    private String archiveOlderThan;
+
+    @Option(names = {"--state"},
+        description = "With --archive, only packages in this state, e.g. finalized. Repeatable.")
+    private String[] archiveStates = new String[0];
+
+    @Option(names = {"--dry-run"}, description = "With --archive, list packages without archiving.")
+    private boolean dryRun;
 
     @Option(names = {"-u", "--unzip"}, description = "Unzip zip file types.")
     private boolean unzip;
@@ -130,7 +245,71 @@ class SendSafelyCLI implements Callable<Integer> {
     @Option(names = {"-r", "--recipient"}, description = "Package recipient.")
     private String[] recipients = new String[0];
 
-    @Parameters(arity = "0..*", description = "File to upload.")
+    @Option(names = {"--name"}, description = "File name for data uploaded from stdin with '-'.")
+    private String stdinName;
+
+    @Option(names = {"--manifest"},
+        description = "Append the name, size and SHA-256 of every uploaded file to the secure message.")
+    private boolean attachManifest;
+
+    @Option(names = {"--split-size"},
+        description = "Upload files larger than this, e.g. 4G, as parts of this size sent several at "
+            + "once. Recipients see the parts as separate NAME.part-NNN-of-MMM files in the web "
+            + "portal; only this CLI's downloads join them back up. Off by default.")
+    private String splitSize;
+
+    @Option(names = {"--zip-threads"},
+        description = "Threads used to zip directories for upload and unzip downloads with --unzip "
+            + "(default: ${DEFAULT-VALUE}).")
+    private int zipThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"--compression-level"},
+        description = "Deflate level for zipped directories, 0 (store only) to 9 (default: ${DEFAULT-VALUE}).")
+    private int compressionLevel = 6;
+
+    @Option(names = {"--prepare-ahead"},
+        description = "Files zipped or read from stdin ahead of the one uploading "
+            + "(default: ${DEFAULT-VALUE}).")
+    private int prepareAhead = 1;
+
+    @Option(names = {"--staging-dir"},
+        description = "Where directories are zipped and stdin is spooled before upload, e.g. a fast "
+            + "scratch disk (default: $SS_STAGING_DIR or the system temp directory).")
+    private File stagingDirectory = System.getenv("SS_STAGING_DIR") == null
+        ? null : new File(System.getenv("SS_STAGING_DIR"));
+
+    @Option(names = {"--staging-quota"},
+        description = "Most data staged at once, e.g. 20G. Unlimited by default.")
+    private String stagingQuota;
+
+    @Option(names = {"--watch"},
+        description = "Watch a directory and send each group of new files in it as a package.")
+    private File watchDirectory;
+
+    @Option(names = {"--settle-seconds"},
+        description = "With --watch, how long files must stay unchanged before they are sent; files "
+            + "arriving within this time of each other share a package (default: ${DEFAULT-VALUE}).")
+    private int settleSeconds = 5;
+
+    @Option(names = {"--results-log"},
+        description = "With --watch, file that every package's secure link is appended to "
+            + "(default: <DIR>.ss-results.log next to the watched directory).")
+    private File resultsLog;
+
+    @Option(names = {"--enqueue"},
+        description = "Queue the package in the outbox for --drain to send, without connecting.")
+    private boolean enqueue;
+
+    @Option(names = {"--drain"}, description = "Send every package queued in the outbox.")
+    private boolean drainOutbox;
+
+    @Option(names = {"--outbox"},
+        description = "Where --enqueue queues packages and --drain sends them from "
+            + "(default: $SS_OUTBOX or ~/.config/ss-outbox).")
+    private File outboxDirectory = System.getenv("SS_OUTBOX") == null
+        ? new File(defaultCredsHomeDirectory, "ss-outbox") : new File(System.getenv("SS_OUTBOX"));
+
+    @Parameters(arity = "0..*", description = "File to upload, or '-' to upload stdin.")
     private File[] files = new File[0];
 
     /**
@@ -145,6 +324,7 @@ class SendSafelyCLI implements Callable<Integer> {
 
             if (args.length > 0) {
                 CommandLine commandLine = new CommandLine(cli);
+                commandLine.setCaseInsensitiveEnumValuesAllowed(true);
                 commandLine.setExecutionExceptionHandler((exception, cmd, parseResult) -> {
                     cli.errorReporter.setDebug(cli.debug);
                     cli.errorReporter.report("SendSafely command failed", exception);
@@ -153,6 +333,7 @@ class SendSafelyCLI implements Callable<Integer> {
                 System.exit(commandLine.execute(args));
             }
 
+            cli.configure();
             cli.start();
         } catch (CLIException | IOException exception) {
             cli.errorReporter.report("SendSafely CLI failed", exception);
@@ -165,6 +346,190 @@ class SendSafelyCLI implements Callable<Integer> {
 
     public Integer call() throws Exception {
         errorReporter.setDebug(debug);
+        ndjson = output == OutputFormat.NDJSON ? new NdjsonWriter(System.out) : null;
+        configure();
+
+        if (jfrFile != null)
+            phaseRecorder.startRecording(jfrFile);
+
+        try {
+            return execute();
+        } finally {
+            phaseRecorder.stopRecording();
+            packageMemo.clear();
+            logRetrySummary();
+            shutdownApiExecutor();
+        }
+    }
+
+    /**
+     * Apply the options to the HTTP transport, staging area, retry policy and concurrency limit.
+     * Both the command line and the interactive menu run this before making any API calls.
+     */
+    void configure() {
+        configureTransport();
+        configureStaging();
+        configureRetryPolicy();
+        configureConcurrencyLimiter();
+    }
+
+    private void configureTransport() {
+        HttpTransport.configure(maxConcurrency, connectTimeoutSeconds * 1000,
+            readTimeoutSeconds * 1000, proxy);
+    }
+
+    /**
+     * Set up the staging area and sweep away directories orphaned there by runs that died.
+     */
+    private void configureStaging() {
+        stagingArea = new StagingArea(stagingDirectory,
+            stagingQuota == null ? 0 : StagingArea.parseSize(stagingQuota));
+
+        for (File swept : stagingArea.sweep(Duration.ofDays(1))) {
+            debug("Removed orphaned staging directory " + swept);
+        }
+    }
+
+    private void configureRetryPolicy() {
+        retryPolicy = new RetryPolicy(retryAttempts, retryBackoffMillis, maxRetryBackoffMillis,
+            retryJitter, retryBudgetSeconds * 1000);
+        retryPolicy.setListener((operation, attempt, delayMillis, error) -> {
+            String detail = error.getClass().getSimpleName()
+                + (error.getMessage() == null ? "" : ": " + errorReporter.sanitize(error.getMessage()));
+
+            if (ndjson != null) {
+                ndjson.write(ndjson.event("retry")
+                    .put("operation", operation)
+                    .put("attempt", attempt)
+                    .put("maxAttempts", retryAttempts)
+                    .put("delayMillis", delayMillis)
+                    .put("error", detail));
+                return;
+            }
+
+            log("Retrying " + operation + " (attempt " + attempt + " of " + retryAttempts + ") in "
+                + delayMillis + " ms after " + detail);
+        });
+    }
+
+    private void configureConcurrencyLimiter() {
+        concurrencyLimiter = new AdaptiveLimiter(Math.min(4, maxConcurrency), maxConcurrency);
+        concurrencyLimiter.setListener((oldLimit, newLimit, reason) -> debug(
+            "API concurrency limit " + oldLimit + " -> " + newLimit + " (" + reason + ")"));
+        debug("API concurrency limit " + concurrencyLimiter.getLimit() + " (max "
+            + maxConcurrency + ")");
+    }
+
+    /**
+     * Call the SendSafely API under the run's shared retry policy and concurrency limit.
+     */
+    private <T, E1 extends Exception, E2 extends Exception> T callApi(String name,
+        RetryPolicy.Operation<T, E1, E2> operation) throws E1, E2 {
+        return retryPolicy.<T, E1, E2>call(name,
+            () -> concurrencyLimiter.<T, E1, E2>call(operation));
+    }
+
+    /**
+     * The async client over the current SDK client. Its calls are retried and limited like every
+     * other API call.
+     */
+    private AsyncSendSafely asyncApi() {
+        if (asyncApi == null || asyncApi.getClient() != sendSafelyAPI) {
+            if (asyncExecutor == null) {
+                asyncExecutor = AsyncSendSafely.newExecutor(maxConcurrency);
+            }
+            asyncApi = new AsyncSendSafely(sendSafelyAPI, asyncExecutor, this::invokeApi);
+        }
+
+        return asyncApi;
+    }
+
+    private <T> T invokeApi(String name, AsyncSendSafely.Call<T> call) throws Exception {
+        return this.<T, Exception, RuntimeException>callApi(name, call::call);
+    }
+
+    private void shutdownApiExecutor() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+            asyncApi = null;
+        }
+
+        debug("API concurrency limit ended at " + concurrencyLimiter.getLimit() + " (peak "
+            + concurrencyLimiter.getPeakLimit() + ")");
+    }
+
+    private void logRetrySummary() {
+        if (retryPolicy.getTotalRetries() == 0)
+            return;
+
+        log("Retried " + retryPolicy.getTotalRetries() + " transient failure"
+            + (retryPolicy.getTotalRetries() == 1 ? "" : "s") + ": "
+            + retryPolicy.getRetryCounts().entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining(", ")));
+    }
+
+    private Integer execute() throws Exception {
+        if (toStdout && ndjson != null) {
+            throw new IllegalArgumentException("--stdout cannot be combined with --output ndjson");
+        }
+
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("--compression-level must be between 0 and 9");
+        }
+
+        if (splitSize != null) {
+            splitBytes = StagingArea.parseSize(splitSize);
+            if (splitBytes < minSplitBytes) {
+                throw new IllegalArgumentException("--split-size must be at least 16M");
+            }
+        }
+
+        if (prepareAhead < 1) {
+            throw new IllegalArgumentException("--prepare-ahead must be at least 1");
+        }
+
+        if (toStdout && popAll) {
+            throw new IllegalArgumentException("--stdout cannot be combined with --pop-all");
+        }
+
+        if (watchDirectory != null && files.length > 0) {
+            throw new IllegalArgumentException("--watch sends the files it finds; don't list files too");
+        }
+
+        if (watchDirectory != null && !watchDirectory.isDirectory()) {
+            throw new IllegalArgumentException("--watch needs a directory, not " + watchDirectory);
+        }
+
+        // Anything written inside the watched directory would be picked up and sent, forever
+        if (watchDirectory != null && isWithin(resultsLogFile(), watchDirectory)) {
+            throw new IllegalArgumentException("--results-log must be outside the watched directory");
+        }
+
+        if (watchDirectory != null && isWithin(stagingArea.getRoot(), watchDirectory)) {
+            throw new IllegalArgumentException(
+                "The staging directory (--staging-dir) must be outside the watched directory");
+        }
+
+        if (enqueue && (files.length == 0 || watchDirectory != null)) {
+            throw new IllegalArgumentException("--enqueue needs the files to queue");
+        }
+
+        if (enqueue && attachManifest) {
+            throw new IllegalArgumentException("--manifest cannot be combined with --enqueue");
+        }
+
+        // Queuing works offline, so it comes before logging in
+        if (enqueue)
+            return enqueue();
+
+        // The login prompts would read from stdin too, and buffer part of the upload with them
+        if (Arrays.stream(files).anyMatch(file -> stdinFileName.equals(file.getPath()))
+            && !(checkFile && credentialsFile.exists())) {
+            throw new IllegalArgumentException("Uploading '-' needs the API key and secret in "
+                + credentialsFile + "; they can't be prompted for while stdin is the upload");
+        }
 
         if (!attemptLogin())
             return 1;
@@ -173,7 +538,7 @@ class SendSafelyCLI implements Callable<Integer> {
             return listPackages();
 
         if (readMessagePackageId != null)
-            return readMessage(parsePackageId(readMessagePackageId));
+            return readMessage(parsePackageId(readMessagePackageId, getPackages()));
 
         if (readLastMessage)
             return readMessage(getLastPackage().getPackageId());
@@ -181,50 +546,245 @@ class SendSafelyCLI implements Callable<Integer> {
         if (pop)
             return pop();
 
+        if (popAll)
+            return popAll();
+
+        if (drainOutbox)
+            return drainOutbox();
+
         if (downloadPackageId != null)
-            return downloadPackage(parsePackageId(downloadPackageId));
+            return downloadPackage(parsePackageId(downloadPackageId, getPackages()));
 
-        if (archivePackageId != null)
-            return archivePackage(parsePackageId(archivePackageId));
+        if (archivePackageIds != null)
+            return archivePackages(archivePackageIds);
 
         if (keygen != null)
             return keygen(keygen);
 
+        if (watchDirectory != null)
+            return watch();
+
+        return sendPackage();
+    }
+
+    /**
+     * Send every group of new files appearing in the watched directory as its own package, until
+     * the process is stopped. Each outcome is appended to the results log as a JSON line, and files
+     * sent successfully according to that log are not sent again, even after a restart.
+     */
+    private Integer watch() throws IOException {
+        File log = resultsLogFile();
+        ObjectMapper mapper = new ObjectMapper();
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(watchDirectory.toPath(),
+            settleSeconds * 1000L, readSentFingerprints(log, mapper))) {
+            log("Watching " + watchDirectory + " for new files; results go to " + log);
+
+            List<File> batch;
+            while ((batch = watcher.nextBatch()) != null) {
+                ObjectNode result = mapper.createObjectNode().put("time", Instant.now().toString());
+                ArrayNode fileNames = result.putArray("files");
+                ArrayNode fingerprints = result.putArray("fingerprints");
+                for (File file : batch) {
+                    fileNames.add(file.getName());
+                    fingerprints.add(DirectoryWatcher.fingerprint(file));
+                }
+
+                log("Sending " + batch.size() + " new file" + (batch.size() == 1 ? "" : "s"));
+                files = batch.toArray(new File[0]);
+                lastSecureLink = null;
+                int undoDepth = undoActions.size();
+
+                if (sendPackage() == 0) {
+                    result.put("secureLink", lastSecureLink);
+                } else {
+                    // Left for the next run, or until the files change
+                    result.put("error", "Failed to send package; see the error output");
+                    undoBatch(undoDepth);
+                }
+
+                // Failed groups are also marked, so a persistent failure doesn't retry in a loop
+                watcher.markHandled(batch);
+                Files.write(log.toPath(), Collections.singletonList(mapper.writeValueAsString(result)),
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Undo what a failed batch did, newest first, back down to the given depth of the undo stack:
+     * its uploads are deleted and its unfinished package removed, so nothing is left behind or
+     * carried into the next batch.
+     */
+    private void undoBatch(int undoDepth) {
+        while (undoActions.size() > undoDepth) {
+            undoActions.pop().run();
+        }
+
+        clearCurrentPackage();
+    }
+
+    /**
+     * The --results-log file, by default next to the watched directory.
+     */
+    private File resultsLogFile() {
+        return resultsLog != null ? resultsLog
+            : new File(watchDirectory.getAbsoluteFile().getParentFile(),
+                watchDirectory.getName() + ".ss-results.log");
+    }
+
+    private static boolean isWithin(File file, File directory) throws IOException {
+        return file.getCanonicalFile().toPath().startsWith(directory.getCanonicalFile().toPath());
+    }
+
+    private static Set<String> readSentFingerprints(File log, ObjectMapper mapper)
+        throws IOException {
+        Set<String> sent = new HashSet<>();
+
+        if (!log.exists()) {
+            return sent;
+        }
+
+        for (String line : Files.readAllLines(log.toPath(), StandardCharsets.UTF_8)) {
+            JsonNode result = line.trim().isEmpty() ? null : mapper.readTree(line);
+            if (result != null && result.hasNonNull("secureLink")) {
+                result.path("fingerprints").forEach(fingerprint -> sent.add(fingerprint.asText()));
+            }
+        }
+
+        return sent;
+    }
+
+    /**
+     * Create a package from the command line's files, recipients and message, then finalize it.
+     * Recipients, and a message without a manifest, don't depend on the files, so they go through
+     * the async client while the files upload. Finalizing waits for all of them.
+     */
+    private Integer sendPackage() throws IOException {
+        uploadManifest.clear();
+
         if (!createPackage())
             return 1;
 
-        for (File file : files) {
-            if (!uploadFile(file, true))
+        String packageId = currentPackage.getPackageId();
+        Set<String> emails = new LinkedHashSet<>(recipients.length > 0
+            ? Arrays.asList(recipients) : Collections.singletonList(userInformation.getEmail()));
+
+        if (emails.contains("")) {
+            System.err.println("Recipient cannot be empty");
+            return 1;
+        }
+
+        String text = message;
+        if (messageFile != null) {
+            try {
+                text = FileUtils.readFileToString(messageFile, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                errorReporter.report("Failed to read message file", e);
                 return 1;
+            }
         }
 
-        if (recipients.length > 0) {
-            for (String recipient : recipients) {
-                if (!addRecipients(recipient))
-                    return 1;
+        List<CompletableFuture<?>> calls = new ArrayList<>();
+        List<CompletableFuture<Boolean>> outcomes = new ArrayList<>();
+
+        for (String email : emails) {
+            PhaseRecorder.Phase phase = phaseRecorder.begin("add-recipient", packageId, null);
+            CompletableFuture<Recipient> addition = asyncApi().addRecipient(packageId, email);
+
+            calls.add(addition);
+            outcomes.add(addition.handle((recipient, error) -> {
+                phase.close();
+                if (error != null) {
+                    reportAsyncFailure("Failed to add recipient '" + email + "'", error);
+                    return false;
+                }
+
+                synchronized (addedRecipients) {
+                    addedRecipients.add(email);
+                }
+                log("Successfully added recipient '" + email + "'");
+                return true;
+            }));
+        }
+
+        if (text != null && !attachManifest) {
+            CompletableFuture<Void> upload =
+                asyncApi().encryptAndUploadMessage(packageId, currentPackage.getKeyCode(), text);
+
+            calls.add(upload);
+            outcomes.add(upload.handle((ignored, error) -> {
+                if (error != null) {
+                    reportAsyncFailure("Failed to upload message", error);
+                    return false;
+                }
+
+                log("Successfully uploaded message");
+                return true;
+            }));
+        }
+
+        boolean succeeded = true;
+        // The next files are zipped or spooled while the current one uploads
+        try (Prefetcher<File, PreparedUpload> prepared = new Prefetcher<>("prepare", prepareAhead,
+            Arrays.asList(files), this::prepareUpload)) {
+            for (File file : files) {
+                succeeded = uploadPrepared(prepared, file);
+
+                if (!succeeded) {
+                    // The package won't be finalized, so don't wait on the rest
+                    calls.forEach(call -> call.cancel(true));
+                    break;
+                }
             }
-        } else {
-            if (!addRecipients(userInformation.getEmail()))
-                return 1;
         }
 
-        if (messageFile != null) {
-            if (!uploadMessage(messageFile))
-                return 1;
-        } else if (message != null) {
-            if (!uploadMessage(message))
-                return 1;
+        for (CompletableFuture<Boolean> outcome : outcomes) {
+            succeeded &= outcome.join();
         }
 
+        if (!succeeded)
+            return 1;
+
+        if (attachManifest && !uploadMessage(uploadManifest.appendTo(text)))
+            return 1;
+
         if (!finalizePackage())
             return 1;
 
         return 0;
     }
 
-    private String parsePackageId(String value)
-        throws GetPackagesException, DownloadFileException, PasswordRequiredException {
-        Package[] packages = getPackages();
+    private boolean uploadPrepared(Prefetcher<File, PreparedUpload> prepared, File file)
+        throws IOException {
+        PreparedUpload upload;
+        try {
+            upload = prepared.next();
+        } catch (Exception e) {
+            errorReporter.report("Failed to prepare " + file.getName() + " for upload", e);
+            return false;
+        }
+
+        try (PreparedUpload uploading = upload) {
+            return encryptAndUploadFile(uploading.file);
+        }
+    }
+
+    private void reportAsyncFailure(String context, Throwable error) {
+        Throwable cause = AsyncSendSafely.unwrap(error);
+
+        // Calls cancelled after another step failed are not failures of their own
+        if (!(cause instanceof CancellationException)) {
+            errorReporter.report(context, cause);
+        }
+    }
+
+    private String parsePackageId(String id, Package[] packages) {
+        String value = id.toLowerCase();
 
         if (value.startsWith("@")) {
             if (packages.length == 0)
@@ -237,6 +797,8 @@ class SendSafelyCLI implements Callable<Integer> {
                 throw new RuntimeException("Index " + index
                     + " is out of bounds. Valid indexes range from 0 to " + packages.length + ".");
             }
+
+            return packages[index].getPackageId();
         }
 
         Package[] packageMatches = Arrays.stream(packages)
@@ -274,9 +836,7 @@ class SendSafelyCLI implements Callable<Integer> {
         }
 
         Privatekey key = sendSafelyAPI.generateKeyPair(keygen);
-        publicKeyId = key.getPublicKeyId();
-        armoredKey = key.getArmoredKey();
-        errorReporter.addSecret(armoredKey);
+        setKeyPair(key.getPublicKeyId(), key.getArmoredKey());
 
         persistCredentials(key);
         log("Generated key " + publicKeyId + " and saved it to " + credentialsFile);
@@ -340,21 +900,32 @@ class SendSafelyCLI implements Callable<Integer> {
 
     private String getMessage(String packageId)
         throws GetKeycodeFailedException, MessageException, PackageInformationFailedException {
-        Package pkg = sendSafelyAPI.getPackageInformation(packageId);
+        Package pkg = getPackageInformation(packageId);
 
         if (!pkg.getPackageContainsMessage()) {
             throw new RuntimeException("Package does not contain a secure message.");
         }
 
-        String keycode = getPackageKeycode(packageId);
+        return getMessage(packageId, getPackageKeycode(packageId));
+    }
 
-        return sendSafelyAPI.getPackageMessage(sendSafelyAPI.getPackageLink(packageId, keycode));
+    private String getMessage(String packageId, String keycode) throws MessageException {
+        return callApi("getPackageMessage",
+            () -> sendSafelyAPI.getPackageMessage(sendSafelyAPI.getPackageLink(packageId, keycode)));
     }
 
     private Integer readMessage(String packageId)
         throws GetKeycodeFailedException, MessageException, PackageInformationFailedException,
         DeletePackageException {
-        System.out.print(getMessage(packageId));
+        String message = getMessage(packageId);
+
+        if (ndjson != null) {
+            ndjson.write(ndjson.event("message")
+                .put("packageId", packageId)
+                .put("message", message));
+        } else {
+            System.out.print(message);
+        }
 
         if (pop) {
             return archivePackage(packageId);
@@ -363,144 +934,941 @@ class SendSafelyCLI implements Callable<Integer> {
         return 0;
     }
 
+    /**
+     * Archive every package selected by the given IDs and the --older-than and --state filters,
+     * deleting them concurrently. All selection happens against one package listing.
+     */
+    private Integer archivePackages(String[] ids)
+        throws GetPackagesException, DownloadFileException, PasswordRequiredException {
+        ArchiveSelector selector = new ArchiveSelector(
+            archiveOlderThan == null ? null : ArchiveSelector.parseAge(archiveOlderThan),
+            archiveStates, Instant.now());
+
+        if (ids.length == 0 && !selector.hasFilters()) {
+            throw new IllegalArgumentException(
+                "--archive needs package IDs or a filter such as --older-than or --state");
+        }
+
+        Package[] packages = getPackages();
+        Set<String> selectedIds = new LinkedHashSet<>();
+
+        if (ids.length == 0) {
+            Arrays.stream(packages).map(Package::getPackageId).forEach(selectedIds::add);
+        }
+
+        for (String id : ids) {
+            if (id.endsWith("*")) {
+                String prefix = id.substring(0, id.length() - 1).toLowerCase();
+                Arrays.stream(packages)
+                    .map(Package::getPackageId)
+                    .filter(packageId -> packageId.toLowerCase().startsWith(prefix))
+                    .forEach(selectedIds::add);
+            } else {
+                selectedIds.add(parsePackageId(id, packages));
+            }
+        }
+
+        List<Package> selected = Arrays.stream(packages)
+            .filter(p -> selectedIds.contains(p.getPackageId()))
+            .filter(selector::matches)
+            .collect(Collectors.toList());
+
+        if (dryRun) {
+            for (Package p : selected) {
+                if (ndjson != null) {
+                    ndjson.write(packageEvent(p).put("event", "would-archive"));
+                } else {
+                    System.out.println("Would archive " + describePackage(p));
+                }
+            }
+
+            log(selected.size() + " package" + (selected.size() == 1 ? "" : "s")
+                + " would be archived");
+            return 0;
+        }
+
+        List<CompletableFuture<Void>> deletions = selected.stream()
+            .map(p -> archivePackageAsync(p.getPackageId()))
+            .collect(Collectors.toList());
+
+        int failed = 0;
+        for (int i = 0; i < selected.size(); i++) {
+            String packageId = selected.get(i).getPackageId();
+
+            try {
+                AsyncSendSafely.<Void, DeletePackageException>join(deletions.get(i));
+            } catch (DeletePackageException e) {
+                failed++;
+                errorReporter.report("Failed to archive package " + packageId, e);
+                continue;
+            }
+
+            if (ndjson != null) {
+                ndjson.write(ndjson.event("package")
+                    .put("event", "archived")
+                    .put("packageId", packageId));
+            } else {
+                log("Archived " + packageId);
+            }
+        }
+
+        log("Archived " + (selected.size() - failed) + " of " + selected.size() + " package"
+            + (selected.size() == 1 ? "" : "s") + (failed == 0 ? "" : ", " + failed + " failed"));
+
+        return failed == 0 ? 0 : 1;
+    }
+
     private Integer archivePackage(String packageId) throws DeletePackageException {
-        sendSafelyAPI.deletePackage(packageId);
+        AsyncSendSafely.<Void, DeletePackageException>join(archivePackageAsync(packageId));
 
         return 0;
     }
 
-    private String getPackageKeycode(String packageId) throws GetKeycodeFailedException {
-        if (publicKeyId == null)
-            throw new RuntimeException(
-                "RSA Key pair required to get the keycode for packages. Use `ss --keygen \"description\"` to create a key pair.");
+    private CompletableFuture<Void> archivePackageAsync(String packageId) {
+        PhaseRecorder.Phase phase = phaseRecorder.begin("archive", packageId, null);
+
+        return asyncApi().deletePackage(packageId).whenComplete((ignored, error) -> {
+            phase.close();
+            if (error == null) {
+                packageMemo.forget(packageId);
+            }
+        });
+    }
+
+    /**
+     * Use the given key pair to decrypt package keycodes. The SDK only takes the armored key and
+     * parses it again on every getKeycode call, so sharing one instance saves nothing but the
+     * allocation; the keycode memo is what keeps each package to one decryption per run.
+     */
+    private void setKeyPair(String publicKeyId, String armoredKey) {
+        this.publicKeyId = publicKeyId;
+        this.armoredKey = armoredKey;
+        errorReporter.addSecret(armoredKey);
 
         Privatekey key = new Privatekey();
         key.setPublicKeyId(publicKeyId);
         key.setArmoredKey(armoredKey);
-        return sendSafelyAPI.getKeycode(packageId, key);
+        privateKey = key;
+    }
+
+    String getPackageKeycode(String packageId) throws GetKeycodeFailedException {
+        return AsyncSendSafely.<String, GetKeycodeFailedException>join(packageKeycode(packageId));
+    }
+
+    private CompletableFuture<String> packageKeycode(String packageId) {
+        if (publicKeyId == null)
+            throw new RuntimeException(
+                "RSA Key pair required to get the keycode for packages. Use `ss --keygen \"description\"` to create a key pair.");
+
+        Privatekey key = privateKey;
+
+        return packageMemo.getKeycode(packageId, () -> {
+            PhaseRecorder.Phase phase = phaseRecorder.begin("keycode", packageId, null);
+            return asyncApi().getKeycode(packageId, key).whenComplete((keycode, error) -> phase.close());
+        });
     }
 
     private Integer downloadPackage(String packageId)
         throws PackageInformationFailedException, DownloadFileException, PasswordRequiredException,
         GetKeycodeFailedException, IOException, MessageException {
-        Package p = sendSafelyAPI.getPackageInformation(packageId);
+        // The keycode is fetched while the package details load
+        CompletableFuture<String> keycodeLookup = packageKeycode(packageId);
+        Package p = getPackageInformation(packageId);
+
+        String keycode = AsyncSendSafely.<String, GetKeycodeFailedException>join(keycodeLookup);
+        List<com.sendsafely.File> selectedFiles = selectFiles(p);
+
+        if (toStdout) {
+            return downloadToStdout(p, selectedFiles, keycode);
+        }
+
+        downloadPackage(p, selectedFiles, keycode, null);
+
+        return 0;
+    }
+
+    /**
+     * Download the given package files, and the secure message unless --file was given, into a
+     * directory.
+     *
+     * @param directory The directory to download into, or null for the current directory
+     * @return Every file or unzipped directory written
+     */
+    private List<File> downloadPackage(Package p, List<com.sendsafely.File> selectedFiles,
+        String keycode, File directory)
+        throws DownloadFileException, PasswordRequiredException, IOException, MessageException {
+        String packageId = p.getPackageId();
+        List<File> downloaded = new ArrayList<>();
+        String message = p.getPackageContainsMessage() ? getMessage(packageId, keycode) : null;
+        PackageManifest manifest = PackageManifest.parse(message);
+
+        if (message != null && downloadFileName == null) {
+            File downloadedFile = new File(directory, "secure-message-" + packageId + ".txt");
+
+            try (FileWriter writer = new FileWriter(downloadedFile)) {
+                writer.write(message);
+            }
+
+            downloaded.add(downloadedFile);
+            log("Downloaded secure message: " + downloadedFile.getCanonicalPath());
+
+            if (ndjson != null) {
+                ndjson.write(ndjson.event("message")
+                    .put("event", "downloaded")
+                    .put("packageId", packageId)
+                    .put("path", downloadedFile.getCanonicalPath()));
+            }
+        }
+
+        Map<String, List<com.sendsafely.File>> splitFiles =
+            FileParts.completeGroups(selectedFiles, com.sendsafely.File::getFileName);
+        Set<com.sendsafely.File> parts = splitFiles.values().stream()
+            .flatMap(List::stream).collect(Collectors.toSet());
+
+        for (com.sendsafely.File f : selectedFiles) {
+            if (parts.contains(f))
+                continue;
+
+            File file = downloadFile(p, f, keycode);
+            verifyDownload(manifest, p, f, file);
+            File downloadedFile = placeDownload(packageId, f.getFileName(), file, directory);
+
+            downloaded.add(downloadedFile);
+            log("Downloaded file: " + downloadedFile.getCanonicalPath());
+
+            if (ndjson != null) {
+                ndjson.write(fileEvent("downloaded", packageId, f)
+                    .put("path", downloadedFile.getCanonicalPath()));
+            }
+        }
+
+        for (Map.Entry<String, List<com.sendsafely.File>> split : splitFiles.entrySet()) {
+            File downloadedFile = downloadSplitFile(p, split.getKey(), split.getValue(), keycode,
+                manifest, directory);
+
+            downloaded.add(downloadedFile);
+            log("Downloaded file: " + downloadedFile.getCanonicalPath());
+
+            if (ndjson != null) {
+                ndjson.write(fileEvent("downloaded", packageId, split.getValue().get(0))
+                    .put("fileName", split.getKey())
+                    .put("fileSize", split.getValue().stream()
+                        .mapToLong(com.sendsafely.File::getFileSize).sum())
+                    .put("parts", split.getValue().size())
+                    .put("path", downloadedFile.getCanonicalPath()));
+            }
+        }
+
+        return downloaded;
+    }
+
+    /**
+     * Move a decrypted file into the download directory, or unzip it there with --unzip.
+     *
+     * @return The file or directory written
+     */
+    private File placeDownload(String packageId, String fileName, File file, File directory)
+        throws IOException {
+        if (unzip && fileName.endsWith(".zip")) {
+            File downloadedFile = new File(directory,
+                fileName.substring(0, fileName.length() - ".zip".length()));
+
+            try (PhaseRecorder.Phase phase = phaseRecorder.begin("unzip", packageId, fileName)) {
+                phase.setBytes(file.length());
+                new ParallelUnzipper(zipThreads).unpack(file, downloadedFile);
+            }
+
+            return downloadedFile;
+        }
+
+        File downloadedFile = new File(directory, fileName);
+        Files.move(file.toPath(), downloadedFile.toPath());
+
+        return downloadedFile;
+    }
+
+    /**
+     * Download the parts of a file uploaded with --split-size and join them back up. Each part is
+     * appended as soon as it is downloaded and verified, then deleted, so the parts never take up
+     * the space of the whole file a second time.
+     */
+    private File downloadSplitFile(Package p, String fileName, List<com.sendsafely.File> parts,
+        String keycode, PackageManifest manifest, File directory)
+        throws DownloadFileException, PasswordRequiredException, IOException {
+        File joined = new File(directory, fileName + ".joining");
+
+        try {
+            try (FileChannel out = FileChannel.open(joined.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+                PhaseRecorder.Phase phase = phaseRecorder.begin("join", p.getPackageId(), fileName)) {
+                for (com.sendsafely.File f : parts) {
+                    File file = downloadFile(p, f, keycode);
+                    try {
+                        verifyDownload(manifest, p, f, file);
+                        FileParts.append(file, out);
+                    } finally {
+                        Files.deleteIfExists(file.toPath());
+                    }
+                }
+                phase.setBytes(out.size());
+            }
+
+            return placeDownload(p.getPackageId(), fileName, joined, directory);
+        } finally {
+            Files.deleteIfExists(joined.toPath());
+        }
+    }
+
+    /**
+     * Download and decrypt a package file with the SDK.
+     *
+     * @return The SDK's temporary file holding the decrypted content
+     */
+    private File downloadFile(Package p, com.sendsafely.File f, String keycode)
+        throws DownloadFileException, PasswordRequiredException {
+        try (FileProgressBar fileProgressBar =
+            openProgress("File download", "download", p.getPackageId(), f.getFileName())) {
+            try (PhaseRecorder.Phase phase =
+                phaseRecorder.begin("download", p.getPackageId(), f.getFileName())) {
+                File file = AsyncSendSafely.<File, DownloadFileException>join(asyncApi()
+                    .downloadFile(p.getPackageId(), f.getFileId(), keycode, fileProgressBar));
+                phase.setBytes(file.length());
+                return file;
+            }
+        }
+    }
 
-        String keycode = getPackageKeycode(packageId);
+    /**
+     * Check a downloaded file against the package manifest, if the package has one, deleting it
+     * if it doesn't match so nothing unverified is kept or archived.
+     */
+    private void verifyDownload(PackageManifest manifest, Package p, com.sendsafely.File f,
+        File file) throws IOException {
+        if (manifest == null) {
+            return;
+        }
+
+        try (PhaseRecorder.Phase phase =
+            phaseRecorder.begin("verify", p.getPackageId(), f.getFileName())) {
+            phase.setBytes(file.length());
+            manifest.verify(f.getFileName(), file);
+        } catch (IOException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
 
-        if (p.getPackageContainsMessage()) {
-            String message = getMessage(packageId);
+        debug("Verified " + f.getFileName() + " against the package manifest");
+    }
+
+    /**
+     * The package files to download: the one named with --file, or all of them.
+     */
+    private List<com.sendsafely.File> selectFiles(Package p) {
+        if (downloadFileName == null) {
+            return p.getFiles();
+        }
+
+        List<com.sendsafely.File> selected = p.getFiles().stream()
+            .filter(f -> downloadFileName.equals(f.getFileName()) || isPartOf(f, downloadFileName))
+            .collect(Collectors.toList());
+
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("Package " + p.getPackageId()
+                + " has no file named '" + downloadFileName + "'");
+        }
+
+        return selected;
+    }
+
+    private static boolean isPartOf(com.sendsafely.File f, String fileName) {
+        FileParts.PartName part = FileParts.parseName(f.getFileName());
+        return part != null && part.getFileName().equals(fileName);
+    }
+
+    /**
+     * Write a single decrypted package file to stdout. The SDK only decrypts into a temporary file,
+     * which is streamed out and deleted straight away rather than moved into the current directory.
+     */
+    private Integer downloadToStdout(Package p, List<com.sendsafely.File> selectedFiles,
+        String keycode)
+        throws DownloadFileException, PasswordRequiredException, IOException, MessageException {
+        String fileName = selectedFiles.size() == 1 ? selectedFiles.get(0).getFileName() : null;
+        List<com.sendsafely.File> pieces = selectedFiles;
+
+        // A file uploaded with --split-size is written out part after part
+        Map<String, List<com.sendsafely.File>> splitFiles =
+            FileParts.completeGroups(selectedFiles, com.sendsafely.File::getFileName);
+        if (splitFiles.size() == 1
+            && splitFiles.values().iterator().next().size() == selectedFiles.size()) {
+            fileName = splitFiles.keySet().iterator().next();
+            pieces = splitFiles.get(fileName);
+        }
+
+        if (fileName == null) {
+            throw new IllegalArgumentException("--stdout needs exactly one file; package "
+                + p.getPackageId() + " has " + selectedFiles.size() + ", choose one with --file");
+        }
+
+        PackageManifest manifest = p.getPackageContainsMessage()
+            ? PackageManifest.parse(getMessage(p.getPackageId(), keycode))
+            : null;
+
+        for (com.sendsafely.File piece : pieces) {
+            File file = downloadFile(p, piece, keycode);
+            verifyDownload(manifest, p, piece, file);
+
+            try {
+                Files.copy(file.toPath(), System.out);
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        System.out.flush();
+
+        log("Wrote " + fileName + " to stdout");
+
+        return 0;
+    }
+
+    private Package getPackageInformation(String packageId)
+        throws PackageInformationFailedException {
+        return AsyncSendSafely.<Package, PackageInformationFailedException>join(
+            packageInformation(packageId));
+    }
+
+    private CompletableFuture<Package> packageInformation(String packageId) {
+        return packageMemo.getPackage(packageId,
+            () -> asyncApi().getPackageInformation(packageId));
+    }
+
+    private Package getLastPackage()
+        throws GetPackagesException, DownloadFileException, PasswordRequiredException {
+        Package[] packages = getPackages();
+
+        if (packages.length == 0) {
+            throw new RuntimeException("No active packages");
+        }
+
+        return packages[0];
+    }
+
+    private Integer pop() throws PackageInformationFailedException, DownloadFileException,
+        PasswordRequiredException, GetKeycodeFailedException, IOException, GetPackagesException,
+        DeletePackageException, MessageException {
+        String packageId = getLastPackage().getPackageId();
+        int returnValue = 0;
+
+        if ((returnValue = downloadPackage(packageId)) != 0) {
+            return returnValue;
+        }
+
+        return archivePackage(packageId);
+    }
+
+    /**
+     * Download and archive every active package. Packages flow through a pipeline of metadata,
+     * keycode, download and archive stages, so one package can be downloading while the next one's
+     * keycode is fetched. Each package goes into its own directory, named after its ID, and is only
+     * archived once everything selected for download is on disk.
+     */
+    private Integer popAll() throws GetPackagesException, DownloadFileException,
+        PasswordRequiredException {
+        List<DrainJob> jobs = AsyncSendSafely.<List<PackageReference>, GetPackagesException>join(
+            asyncApi().getActivePackages()).stream()
+            .map(reference -> new DrainJob(reference.getPackageId()))
+            .collect(Collectors.toList());
+
+        if (jobs.isEmpty()) {
+            log("No active packages");
+            return 0;
+        }
+
+        StagedPipeline<DrainJob> pipeline = new StagedPipeline<DrainJob>()
+            .stage("metadata", maxConcurrency, job -> {
+                job.pkg = getPackageInformation(job.packageId);
+                return job;
+            })
+            .stage("keycode", maxConcurrency, job -> {
+                job.keycode = getPackageKeycode(job.packageId);
+                return job;
+            })
+            .stage("download", drainConcurrency, job -> {
+                List<com.sendsafely.File> selectedFiles = selectFiles(job.pkg);
+                File directory = new File(job.packageId);
+                Files.createDirectories(directory.toPath());
+
+                // The parts of a split file are joined into one
+                job.expected = selectedFiles.size()
+                    - FileParts.completeGroups(selectedFiles, com.sendsafely.File::getFileName)
+                        .values().stream().mapToInt(parts -> parts.size() - 1).sum()
+                    + (job.pkg.getPackageContainsMessage() && downloadFileName == null ? 1 : 0);
+                job.downloaded = downloadPackage(job.pkg, selectedFiles, job.keycode, directory);
+                return job;
+            })
+            .stage("archive", maxConcurrency, job -> {
+                verifyDownloaded(job);
+                archivePackage(job.packageId);
+                return job;
+            });
+
+        concurrentTransfers = true;
+        List<StagedPipeline.Result<DrainJob>> results;
+        try {
+            results = pipeline.run(jobs);
+        } finally {
+            concurrentTransfers = false;
+        }
+
+        int failed = 0;
+        for (StagedPipeline.Result<DrainJob> result : results) {
+            String packageId = result.getItem().packageId;
+
+            if (!result.isSuccess()) {
+                failed++;
+                errorReporter.report("Failed to drain package " + packageId + " at the "
+                    + result.getFailedStage() + " stage", result.getFailure());
+            } else if (ndjson != null) {
+                ndjson.write(ndjson.event("package")
+                    .put("event", "archived")
+                    .put("packageId", packageId));
+            } else {
+                log("Archived " + packageId);
+            }
+        }
+
+        log("Drained " + (results.size() - failed) + " of " + results.size() + " package"
+            + (results.size() == 1 ? "" : "s") + (failed == 0 ? "" : ", " + failed + " failed"));
+
+        return failed == 0 ? 0 : 1;
+    }
+
+    private void verifyDownloaded(DrainJob job) throws IOException {
+        if (job.downloaded.size() != job.expected) {
+            throw new IOException("Downloaded " + job.downloaded.size() + " of " + job.expected
+                + " items for package " + job.packageId + "; not archiving it");
+        }
+
+        for (File file : job.downloaded) {
+            if (!file.exists()) {
+                throw new IOException("Downloaded item " + file + " is missing; not archiving package "
+                    + job.packageId);
+            }
+        }
+    }
+
+    /**
+     * A package making its way through the --pop-all pipeline.
+     */
+    private static class DrainJob {
+        final String packageId;
+        Package pkg;
+        String keycode;
+        int expected;
+        List<File> downloaded;
+
+        DrainJob(String packageId) {
+            this.packageId = packageId;
+        }
+    }
+
+    /**
+     * Copy the command line's files into a new outbox job, with its recipients and message, for
+     * --drain to send later. Directories are zipped into the job.
+     */
+    private Integer enqueue() {
+        if (Arrays.asList(recipients).contains("")) {
+            System.err.println("Recipient cannot be empty");
+            return 1;
+        }
+
+        try (Outbox.Draft draft = new Outbox(outboxDirectory).draft()) {
+            String text = messageFile != null
+                ? FileUtils.readFileToString(messageFile, StandardCharsets.UTF_8) : message;
+
+            for (File file : files) {
+                if (stdinFileName.equals(file.getPath())) {
+                    if (stdinName == null || stdinName.trim().isEmpty()) {
+                        throw new IllegalArgumentException("--name is required when queuing '-'");
+                    }
+                    Files.copy(System.in,
+                        new File(draft.getFilesDirectory(), new File(stdinName.trim()).getName()).toPath());
+                } else if (file.isDirectory()) {
+                    String name = file.getCanonicalFile().getName();
+                    File zipFile = new File(draft.getFilesDirectory(), name + ".zip");
+
+                    try (PhaseRecorder.Phase phase = phaseRecorder.begin("zip", null, name)) {
+                        phase.setBytes(new ParallelZipWriter(zipThreads, compressionLevel)
+                            .pack(file, zipFile));
+                    }
+                } else {
+                    Files.copy(file.toPath(), new File(draft.getFilesDirectory(), file.getName()).toPath());
+                }
+            }
+
+            Outbox.Job job = draft.commit(Arrays.asList(recipients), text);
+
+            if (ndjson != null) {
+                ndjson.write(ndjson.event("job")
+                    .put("event", "queued")
+                    .put("job", job.getId()));
+            } else {
+                log("Queued " + job.getFiles().size() + " file" + (job.getFiles().size() == 1 ? "" : "s")
+                    + " as outbox job " + job.getId());
+            }
+
+            return 0;
+        } catch (IOException | IllegalArgumentException e) {
+            errorReporter.report("Failed to queue package", e);
+
+            return 1;
+        }
+    }
+
+    /**
+     * Send every job in the outbox. Jobs move through create, upload and finalize stages, each
+     * step recorded in the job's state log as soon as it succeeds, so a job interrupted by a crash
+     * picks up where it stopped on the next drain instead of creating another package. Jobs that
+     * fail stay queued.
+     */
+    private Integer drainOutbox() throws IOException {
+        Outbox outbox = new Outbox(outboxDirectory);
+
+        try (FileChannel lock = outbox.lock()) {
+            List<Outbox.Job> jobs = outbox.jobs(Duration.ofDays(1));
+
+            if (jobs.isEmpty()) {
+                log("The outbox is empty");
+                return 0;
+            }
+
+            StagedPipeline<Outbox.Job> pipeline = new StagedPipeline<Outbox.Job>()
+                .stage("create", maxConcurrency, job -> {
+                    if (job.getState() == Outbox.State.QUEUED) {
+                        createOutboxPackage(job);
+                    }
+                    return job;
+                })
+                .stage("upload", drainConcurrency, job -> {
+                    if (job.getState() == Outbox.State.CREATED) {
+                        uploadOutboxJob(job);
+                    }
+                    return job;
+                })
+                .stage("finalize", maxConcurrency, job -> {
+                    if (job.getState() == Outbox.State.UPLOADED) {
+                        finalizeOutboxJob(job);
+                    }
+                    job.complete();
+                    return job;
+                });
+
+            concurrentTransfers = true;
+            List<StagedPipeline.Result<Outbox.Job>> results;
+            try {
+                results = pipeline.run(jobs);
+            } finally {
+                concurrentTransfers = false;
+            }
+
+            int failed = 0;
+            for (StagedPipeline.Result<Outbox.Job> result : results) {
+                Outbox.Job job = result.getItem();
+
+                if (!result.isSuccess()) {
+                    failed++;
+                    errorReporter.report("Failed to send outbox job " + job.getId() + " at the "
+                        + result.getFailedStage() + " stage; it stays queued", result.getFailure());
+                } else if (ndjson != null) {
+                    ndjson.write(ndjson.event("package")
+                        .put("event", "finalized")
+                        .put("job", job.getId())
+                        .put("packageId", job.getPackageId())
+                        .put("secureLink", job.getSecureLink()));
+                } else {
+                    System.out.println("Secure link for " + job.getId() + ": " + job.getSecureLink());
+                }
+            }
+
+            log("Sent " + (results.size() - failed) + " of " + results.size() + " queued package"
+                + (results.size() == 1 ? "" : "s") + (failed == 0 ? "" : ", " + failed + " failed"));
+
+            return failed == 0 ? 0 : 1;
+        }
+    }
+
+    /**
+     * Create an outbox job's package. Creating a package isn't idempotent, so unlike the job's
+     * other calls it is never retried: a response lost after the package was created would
+     * otherwise leave a second package. A failed job stays queued for the next drain.
+     */
+    private void createOutboxPackage(Outbox.Job job) throws Exception {
+        try (PhaseRecorder.Phase phase = phaseRecorder.begin("create-package", null, null)) {
+            Package pkg = concurrencyLimiter.<Package, Exception, RuntimeException>call(
+                () -> sendSafelyAPI.createPackage());
+            job.recordCreated(pkg.getPackageId(), pkg.getKeyCode(), pkg.getRootDirectoryId());
+        }
+    }
+
+    /**
+     * Add an outbox job's files, recipients and message to its package, skipping whatever its state
+     * log says is done already.
+     */
+    private void uploadOutboxJob(Outbox.Job job) throws Exception {
+        String packageId = job.getPackageId();
+        Set<String> emails = new LinkedHashSet<>(job.getRecipients().isEmpty()
+            ? Collections.singletonList(userInformation.getEmail()) : job.getRecipients());
+
+        if (job.isResumed()) {
+            reconcileOutboxJob(job, emails);
+        }
+
+        Map<String, String> uploaded = job.getUploadedFiles();
+        for (File file : job.getFiles()) {
+            if (uploaded.containsKey(file.getName()))
+                continue;
+
+            FileManager fileManager = new DefaultFileManager(file);
+
+            try (FileProgressBar fileProgressBar =
+                openProgress("File Upload", "upload", packageId, file.getName());
+                PhaseRecorder.Phase phase = phaseRecorder.begin("upload", packageId, file.getName())) {
+                phase.setBytes(file.length());
+
+                com.sendsafely.File addedFile = invokeApi("encryptAndUploadFile", () -> {
+                    discardPartialUpload(packageId, job.getRootDirectoryId(), fileProgressBar);
+                    return sendSafelyAPI.encryptAndUploadFile(packageId, job.getKeycode(),
+                        fileManager, fileProgressBar);
+                });
+                job.recordFileUploaded(file.getName(), addedFile.getFileId());
+            }
+        }
 
-            File downloadedFile = new File("secure-message-" + packageId + ".txt");
+        Set<String> added = job.getAddedRecipients();
+        for (String email : emails) {
+            if (added.contains(email))
+                continue;
 
-            try (FileWriter writer = new FileWriter(downloadedFile)) {
-                writer.write(message);
+            try (PhaseRecorder.Phase phase = phaseRecorder.begin("add-recipient", packageId, null)) {
+                invokeApi("addRecipient", () -> sendSafelyAPI.addRecipient(packageId, email));
             }
+            job.recordRecipientAdded(email);
+        }
 
-            log("Downloaded secure message: " + downloadedFile.getCanonicalPath());
+        if (job.getMessage() != null && !job.isMessageUploaded()) {
+            invokeApi("encryptAndUploadMessage", () -> {
+                sendSafelyAPI.encryptAndUploadMessage(packageId, job.getKeycode(), job.getMessage());
+                return null;
+            });
+            job.recordMessageUploaded();
         }
 
-        for (com.sendsafely.File f : p.getFiles()) {
-            File downloadedFile = null;
+        job.recordUploaded();
+    }
 
-            try (ProgressBar progressBar = new ASCIIProgressBar("File download", 100)) {
-                FileProgressBar fileProgressBar = new FileProgressBar(progressBar);
-                File file = sendSafelyAPI.downloadFile(p.getPackageId(), f.getFileId(), keycode,
-                    fileProgressBar);
+    /**
+     * Bring a resumed job's state log up to date with its package. Whatever the last drain was
+     * doing when it stopped may have reached the package without being recorded: such files may be
+     * incomplete, so they are deleted and uploaded again, while recipients and the message are
+     * recorded as added.
+     */
+    private void reconcileOutboxJob(Outbox.Job job, Set<String> emails) throws Exception {
+        String packageId = job.getPackageId();
+        Package pkg = invokeApi("getPackageInformation",
+            () -> sendSafelyAPI.getPackageInformation(packageId));
+        Collection<String> recordedFileIds = job.getUploadedFiles().values();
+
+        for (com.sendsafely.File f : pkg.getFiles()) {
+            if (!recordedFileIds.contains(f.getFileId())) {
+                invokeApi("deleteFile", () -> {
+                    sendSafelyAPI.deleteFile(packageId, job.getRootDirectoryId(), f.getFileId());
+                    return null;
+                });
+                debug("Discarded unrecorded file " + f.getFileName() + " from package " + packageId);
+            }
+        }
 
-                if (unzip && f.getFileName().endsWith(".zip")) {
-                    downloadedFile = new File(
-                        f.getFileName().substring(0, f.getFileName().length() - ".zip".length()));
+        Set<String> added = job.getAddedRecipients();
+        for (Recipient recipient : pkg.getRecipients()) {
+            if (emails.contains(recipient.getEmail()) && !added.contains(recipient.getEmail())) {
+                job.recordRecipientAdded(recipient.getEmail());
+            }
+        }
 
-                    ZipUtil.unpack(file, downloadedFile);
-                } else {
-                    downloadedFile = new File(f.getFileName());
+        if (pkg.getPackageContainsMessage() && !job.isMessageUploaded()) {
+            job.recordMessageUploaded();
+        }
+    }
 
-                    Files.move(file.toPath(), downloadedFile.toPath());
+    /**
+     * Finalize an outbox job's package. Before a retry, or when the last drain stopped after
+     * finalizing but before recording it, the package's state is checked first, so a package that
+     * was finalized already isn't finalized again.
+     */
+    private void finalizeOutboxJob(Outbox.Job job) throws Exception {
+        String packageId = job.getPackageId();
+        boolean[] mayBeFinalized = {job.isResumed()};
+
+        try (PhaseRecorder.Phase phase = phaseRecorder.begin("finalize", packageId, null)) {
+            String secureLink = invokeApi("finalizePackage", () -> {
+                if (mayBeFinalized[0] && sendSafelyAPI.getPackageInformation(packageId).getState()
+                    == PackageState.PACKAGE_STATE_FINALIZED) {
+                    return sendSafelyAPI.getPackageLink(packageId, job.getKeycode());
                 }
+
+                mayBeFinalized[0] = true;
+                return sendSafelyAPI.finalizePackage(packageId, job.getKeycode()).getSecureLink();
+            });
+            job.recordFinalized(secureLink);
+        }
+    }
+
+    private Integer listPackages()
+        throws GetPackagesException, DownloadFileException, PasswordRequiredException {
+        int count = forEachPackage(p -> {
+            if (ndjson != null) {
+                ndjson.write(packageEvent(p));
+            } else {
+                System.out.println(describePackage(p));
             }
+        });
 
-            log("Downloaded file: " + downloadedFile.getCanonicalPath());
+        if (count == 0) {
+            log("No active packages");
         }
 
         return 0;
     }
 
-    private Package getLastPackage()
-        throws GetPackagesException, DownloadFileException, PasswordRequiredException {
-        Package[] packages = getPackages();
-
-        if (packages.length == 0) {
-            throw new RuntimeException("No active packages");
+    private String describePackage(Package p) {
+        String pattern = "MM/dd/yyyy HH:mm:ss";
+        DateFormat df = new SimpleDateFormat(pattern);
+        String date = df.format(p.getPackageTimestamp());
+        String message = p.getPackageId() + " - " + date + " - ";
+
+        if (!p.getFiles().isEmpty()) {
+            int count = p.getFiles().size();
+            String fileNames = p.getFiles().stream().map(f -> f.getFileName())
+                .collect(Collectors.joining(", "));
+            fileNames =
+                fileNames.length() > 100 ? fileNames.substring(0, 100) : fileNames;
+            message += count + " file" + (count == 1 ? "" : "s") + " - " + fileNames;
+        } else if (p.getPackageContainsMessage()) {
+            message += "secure message";
+        } else {
+            message += "empty";
         }
 
-        return packages[0];
+        return message + " - " + describeState(p);
     }
 
-    private Integer pop() throws PackageInformationFailedException, DownloadFileException,
-        PasswordRequiredException, GetKeycodeFailedException, IOException, GetPackagesException,
-        DeletePackageException, MessageException {
-        String packageId = getLastPackage().getPackageId();
-        int returnValue = 0;
+    private String describeState(Package p) {
+        return p.getState().toString().substring("PACKAGE_STATE_".length())
+            .toLowerCase().replace("_", " ");
+    }
 
-        if ((returnValue = downloadPackage(packageId)) != 0) {
-            return returnValue;
+    private ObjectNode packageEvent(Package p) {
+        ObjectNode event = ndjson.event("package")
+            .put("packageId", p.getPackageId())
+            .put("timestamp", p.getPackageTimestamp() == null
+                ? null : p.getPackageTimestamp().toInstant().toString())
+            .put("state", describeState(p))
+            .put("containsMessage", p.getPackageContainsMessage());
+        ArrayNode files = event.putArray("files");
+        for (com.sendsafely.File f : p.getFiles()) {
+            files.addObject()
+                .put("fileId", f.getFileId())
+                .put("fileName", f.getFileName())
+                .put("fileSize", f.getFileSize());
         }
-
-        return archivePackage(packageId);
+        return event;
     }
 
-    private Integer listPackages()
-        throws GetPackagesException, DownloadFileException, PasswordRequiredException {
-        Package[] packages = getPackages();
+    private ObjectNode fileEvent(String event, String packageId, com.sendsafely.File f) {
+        return ndjson.event("file")
+            .put("event", event)
+            .put("packageId", packageId)
+            .put("fileId", f.getFileId())
+            .put("fileName", f.getFileName())
+            .put("fileSize", f.getFileSize());
+    }
 
-        if (packages.length == 0) {
-            log("No active packages");
-            return 0;
+    /**
+     * Open the progress display for a transfer: an ASCII progress bar for text output, progress
+     * events for NDJSON output with --progress-events, or nothing.
+     */
+    private FileProgressBar openProgress(String task, String operation, String packageId,
+        String fileName) {
+        BackgroundJobs.Job job = BackgroundJobs.currentJob();
+        if (job != null) {
+            // Background jobs report progress in the menu's status line instead of drawing a bar
+            return new FileProgressBar(null, job::setPercent);
         }
 
-        for (Package p : packages) {
-            String pattern = "MM/dd/yyyy HH:mm:ss";
-            DateFormat df = new SimpleDateFormat(pattern);
-            String date = df.format(p.getPackageTimestamp());
-            String message = p.getPackageId() + " - " + date + " - ";
-
-            if (!p.getFiles().isEmpty()) {
-                int count = p.getFiles().size();
-                String fileNames = p.getFiles().stream().map(f -> f.getFileName())
-                    .collect(Collectors.joining(", "));
-                fileNames =
-                    fileNames.length() > 100 ? fileNames.substring(0, 100) : fileNames;
-                message += count + " file" + (count == 1 ? "" : "s") + " - " + fileNames;
-            } else if (p.getPackageContainsMessage()) {
-                message += "secure message";
-            } else {
-                message += "empty";
+        if (ndjson == null) {
+            if (concurrentTransfers) {
+                return new FileProgressBar(null);
             }
 
-            message += " - " + p.getState().toString().substring("PACKAGE_STATE_".length())
-                .toLowerCase().replace("_", " ");
+            if (toStdout) {
+                return new FileProgressBar(quiet ? null : new ASCIIProgressBar(task, 100, System.err));
+            }
 
-            System.out.println(message);
+            return new FileProgressBar(new ASCIIProgressBar(task, 100));
         }
 
-        return 0;
+        if (!progressEvents) {
+            return new FileProgressBar(null);
+        }
+
+        return new FileProgressBar(null, percent -> ndjson.write(ndjson.event("progress")
+            .put("operation", operation)
+            .put("packageId", packageId)
+            .put("fileName", fileName)
+            .put("percent", percent)));
     }
 
     private Package[] getPackages()
         throws GetPackagesException, DownloadFileException, PasswordRequiredException {
-        return sendSafelyAPI.getActivePackages()
-            .stream()
-            .map((p) -> {
-                try {
-                    return sendSafelyAPI.getPackageInformation(p.getPackageId());
-                } catch (PackageInformationFailedException e) {
-                    errorReporter.report("Failed to load package " + p.getPackageId(), e);
-                }
+        List<Package> packages = new ArrayList<>();
+        forEachPackage(packages::add);
+        return packages.toArray(new Package[0]);
+    }
 
-                return null;
-            })
-            .filter(p -> p != null)
-            .toArray(Package[]::new);
+    /**
+     * Load the details of every active package and hand them to the consumer in list order, as
+     * soon as each is available. Details are fetched concurrently under the adaptive limiter, with
+     * at most a small window of fetched-but-unconsumed packages held in memory.
+     *
+     * @return The number of packages passed to the consumer
+     */
+    private int forEachPackage(Consumer<Package> consumer)
+        throws GetPackagesException, DownloadFileException, PasswordRequiredException {
+        List<PackageReference> references =
+            AsyncSendSafely.<List<PackageReference>, GetPackagesException>join(
+                asyncApi().getActivePackages());
+        Deque<CompletableFuture<Package>> window = new ArrayDeque<>();
+        int windowSize = Math.max(1, maxConcurrency * 2);
+        int next = 0;
+        int count = 0;
+
+        while (next < references.size() || !window.isEmpty()) {
+            while (next < references.size() && window.size() < windowSize) {
+                String packageId = references.get(next++).getPackageId();
+                window.add(packageInformation(packageId).exceptionally(error -> {
+                    errorReporter.report("Failed to load package " + packageId,
+                        AsyncSendSafely.unwrap(error));
+                    return null;
+                }));
+            }
+
+            Package p = window.remove().join();
+            if (p != null) {
+                consumer.accept(p);
+                count++;
+            }
+        }
+
+        return count;
     }
 
     /**
@@ -531,10 +1899,16 @@ class SendSafelyCLI implements Callable<Integer> {
         File credentialsFile) {
         this.consolePromptHelper = consolePromptHelper;
         this.errorReporter = errorReporter;
+        this.phaseRecorder = new PhaseRecorder(errorReporter);
+        this.packageMemo = new PackageMemo(errorReporter);
+        this.backgroundUploads = new BackgroundJobs("upload", errorReporter);
         this.credentialsFile = credentialsFile;
 
         undoActions = new Stack<>();
         addedRecipients = new HashSet<>();
+        // Defaults until configure() applies the options
+        configureRetryPolicy();
+        configureConcurrencyLimiter();
     }
 
     void setSendSafelyAPI(SendSafely sendSafelyAPI) {
@@ -558,13 +1932,24 @@ class SendSafelyCLI implements Callable<Integer> {
         return armoredKey;
     }
 
+    AdaptiveLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
     /**
      * Start the CLI program. This starts the user off with prompting login credentials, then moves
      * into the main menu where a user can create a package, upload a file, add recipients to the
-     * current package, undo the previous action, logout, or quit the program.
+     * current package, undo the previous action, logout, or quit the program. Uploads run in the
+     * background, one after another, while the menu stays available; their progress is shown in the
+     * menu prompt.
      */
     public void start() throws CLIException, IOException {
-        AnsiConsole.systemInstall();
+        boolean terminal = consolePromptHelper.isTerminal();
+
+        // Without a terminal the prompts are plain lines, and jline is never loaded
+        if (terminal) {
+            AnsiConsole.systemInstall();
+        }
 
         loginUser();
 
@@ -590,9 +1975,10 @@ class SendSafelyCLI implements Callable<Integer> {
                     .put(ActionType.LOGOUT, "Logout")
                     .put(ActionType.QUIT, "Quit");
 
-                ActionType action = consolePromptHelper.promptForAction(
-                    "What would you like to do?",
-                    optionsBuilder.build());
+                String status = backgroundUploads.status();
+                ActionType action = whileWaitingOnUser(() -> consolePromptHelper.promptForAction(
+                    "What would you like to do?" + (status.isEmpty() ? "" : " [" + status + "]"),
+                    optionsBuilder.build()));
 
                 switch (action) {
                     case CREATE_PACKAGE:
@@ -602,7 +1988,10 @@ class SendSafelyCLI implements Callable<Integer> {
                         uploadFile();
                         break;
                     case FINALIZE:
-                        finalizePackage();
+                        if (awaitBackgroundUploads() == 0 || consolePromptHelper.promptForConfirmation(
+                            "Some uploads failed. Finalize the package anyway?")) {
+                            finalizePackage();
+                        }
                         break;
                     case ADD_RECIPIENTS:
                         addRecipients();
@@ -614,10 +2003,12 @@ class SendSafelyCLI implements Callable<Integer> {
                         undoPreviousAction();
                         break;
                     case LOGOUT:
+                        awaitBackgroundUploads();
                         logoutUser();
                         loginUser();
                         break;
                     case QUIT:
+                        awaitBackgroundUploads();
                         quit();
                         return;
                     default:
@@ -627,10 +2018,56 @@ class SendSafelyCLI implements Callable<Integer> {
         } catch (IOException e) {
             errorReporter.report("Interactive SendSafely operation failed", e);
         } finally {
-            restoreTerminalFactory();
+            if (terminal) {
+                restoreTerminalFactory();
+            }
+        }
+    }
+
+    /**
+     * Wait for every queued and running background upload to finish.
+     *
+     * @return The number of uploads that failed
+     */
+    private int awaitBackgroundUploads() {
+        int outstanding = backgroundUploads.getOutstanding();
+
+        if (outstanding > 0) {
+            log("Waiting for " + outstanding + " upload" + (outstanding == 1 ? "" : "s")
+                + " to finish");
+        }
+
+        try {
+            return backgroundUploads.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CLIException("Interrupted while waiting for uploads", e);
+        }
+    }
+
+    /**
+     * Show a prompt, keeping the connection to SendSafely warm until the user answers so the
+     * action that follows doesn't start with a new handshake.
+     */
+    private <T> T whileWaitingOnUser(Prompt<T> prompt) throws IOException {
+        SendSafely api = sendSafelyAPI;
+
+        if (api != null) {
+            connectionWarmer.start(api::verifyCredentials);
+        }
+
+        try {
+            return prompt.show();
+        } finally {
+            connectionWarmer.stop();
         }
     }
 
+    @FunctionalInterface
+    private interface Prompt<T> {
+        T show() throws IOException;
+    }
+
     /**
      * Clear the state around the current package.
      */
@@ -643,10 +2080,12 @@ class SendSafelyCLI implements Callable<Integer> {
      * Logout the currently logged in user and clear the sendSafelyAPI properties.
      */
     public void logoutUser() {
+        connectionWarmer.stop();
         undoActions.clear();
         clearCurrentPackage();
         sendSafelyAPI = null;
         userInformation = null;
+        packageMemo.clear();
     }
 
     /**
@@ -677,14 +2116,15 @@ class SendSafelyCLI implements Callable<Integer> {
     }
 
     /**
-     * Get a new SendSafely API instance with the given apiKey and apiSecret.
+     * Get a new SendSafely API instance with the given apiKey and apiSecret, connected to the
+     * configured host.
      *
      * @param apiKey The SendSafely api key for a user
      * @param apiSecret The SendSafely api secret for a user
      * @return The SendSafely API instance connected with the credentials
      */
     public SendSafely getSendSafelyAPIForKeyAndSecret(String apiKey, String apiSecret) {
-        return new SendSafely("https://app.sendsafely.com", apiKey, apiSecret);
+        return new SendSafely(host, apiKey, apiSecret);
     }
 
     /**
@@ -701,9 +2141,8 @@ class SendSafelyCLI implements Callable<Integer> {
                 apiSecret = requiredCredential(node, "apiKeySecret");
 
                 if (node.findValue("publicKeyId") != null) {
-                    publicKeyId = node.get("publicKeyId").asText(null);
-                    armoredKey = node.get("armoredKey").asText(null);
-                    errorReporter.addSecret(armoredKey);
+                    setKeyPair(node.get("publicKeyId").asText(null),
+                        node.get("armoredKey").asText(null));
                 }
             } catch (IOException | IllegalArgumentException e) {
                 errorReporter.report("Failed to read credentials from " + credentialsFile, e);
@@ -725,19 +2164,22 @@ class SendSafelyCLI implements Callable<Integer> {
 
         sendSafelyAPI = getSendSafelyAPIForKeyAndSecret(apiKey, apiSecret);
 
-        try {
-            sendSafelyAPI.verifyCredentials();
-        } catch (InvalidCredentialsException e) {
-            errorReporter.report("Failed to verify SendSafely credentials", e);
-            return false;
-        }
+        try (PhaseRecorder.Phase phase = phaseRecorder.begin("login", null, null)) {
+            try {
+                sendSafelyAPI.verifyCredentials();
+            } catch (InvalidCredentialsException e) {
+                errorReporter.report("Failed to verify SendSafely credentials", e);
+                return false;
+            }
 
-        try {
-            userInformation = sendSafelyAPI.getUserInformation();
-        } catch (UserInformationFailedException e) {
-            errorReporter.report(
-                "Credentials were verified, but SendSafely user information could not be loaded", e);
-            return false;
+            try {
+                userInformation = sendSafelyAPI.getUserInformation();
+            } catch (UserInformationFailedException e) {
+                errorReporter.report(
+                    "Credentials were verified, but SendSafely user information could not be loaded",
+                    e);
+                return false;
+            }
         }
 
         log("Successfully logged in! Welcome, " + userInformation.getFirstName()
@@ -791,13 +2233,15 @@ class SendSafelyCLI implements Callable<Integer> {
      * Create a new SendSafely package and set it as the current package
      */
     public boolean createPackage() {
-        try {
+        try (PhaseRecorder.Phase phase = phaseRecorder.begin("create-package", null, null)) {
             currentPackage = sendSafelyAPI.createPackage();
 
             log("Successfully created package");
 
             undoActions.push(() -> {
                 try {
+                    // An upload being undone may still be running against the package
+                    awaitBackgroundUploads();
                     deleteCurrentPackage();
 
                     log("Successfully deleted package");
@@ -867,20 +2311,29 @@ class SendSafelyCLI implements Callable<Integer> {
      */
     public FileManager createFileManager(File file) {
         try {
-            return new DefaultFileManager(file);
+            return attachManifest ? new DigestingFileManager(file) : new DefaultFileManager(file);
         } catch (IOException e) {
             throw new FilePromptException("Failed to create file manager", e);
         }
     }
 
     /**
-     * Enter a promp sequence for uploading a file to the current package.
+     * Enter a promp sequence for uploading a file to the current package. The upload itself is
+     * queued to run in the background.
      */
     public boolean uploadFile() throws IOException {
         try {
-            File file = consolePromptHelper.promptForFile("Enter the file location");
+            File file = whileWaitingOnUser(
+                () -> consolePromptHelper.promptForFile("Enter the file location"));
+
+            if (file.isDirectory() && !consolePromptHelper.promptForConfirmation(
+                "The given file is a directory and cannot be uploaded as is. Zip it?")) {
+                return false;
+            }
 
-            return uploadFile(file, false);
+            submitUpload(file);
+
+            return true;
         } catch (FilePromptException e) {
             errorReporter.report("SendSafely operation failed", e);
 
@@ -893,97 +2346,372 @@ class SendSafelyCLI implements Callable<Integer> {
     }
 
     /**
-     * Enter a promp sequence for uploading a file to the current package.
+     * Queue a file to be uploaded to the current package in the background. Its undo entry is
+     * pushed straight away, in the order the user asked for it: undoing drops the upload if it
+     * hasn't started, deletes the file if it has been uploaded, or, if it is still uploading, has
+     * it deleted as soon as it finishes.
+     */
+    private void submitUpload(File file) {
+        BackgroundJobs.Job job = backgroundUploads.submit(file.getName(), () -> zipAndUploadFile(file));
+
+        log("Queued " + file.getName() + " for upload");
+
+        undoActions.push(() -> {
+            switch (job.undo()) {
+                case QUEUED:
+                    log("Cancelled upload of " + job.getName());
+                    break;
+                case RUNNING:
+                    log("Upload of " + job.getName()
+                        + " is in progress; it will be deleted once it finishes");
+                    break;
+                case FAILED:
+                    log("Upload of " + job.getName() + " failed; nothing to undo");
+                    break;
+                default:
+                    break;
+            }
+        });
+    }
+
+    /**
+     * Upload a file to the current package, zipping it first if it is a directory. Nothing here
+     * prompts, so it can run as a background job.
+     */
+    private boolean zipAndUploadFile(File file) throws IOException {
+        // The staging directory, and the zip in it, is removed however the upload ends
+        try (PreparedUpload upload = zipIfDirectory(file)) {
+            return encryptAndUploadFile(upload.file);
+        }
+    }
+
+    /**
+     * Get a command line file ready to upload: spool it if it is stdin, zip it if it is a
+     * directory.
      */
-    public boolean uploadFile(File file, boolean autoZipDirectory) throws IOException {
+    private PreparedUpload prepareUpload(File file) throws IOException {
+        if (!stdinFileName.equals(file.getPath())) {
+            return zipIfDirectory(file);
+        }
+
+        if (stdinName == null || stdinName.trim().isEmpty()) {
+            throw new IllegalArgumentException("--name is required when uploading '-'");
+        }
+
+        return spoolStdin(stdinName);
+    }
+
+    private PreparedUpload zipIfDirectory(File file) throws IOException {
+        if (!file.isDirectory()) {
+            return new PreparedUpload(file, null);
+        }
+
+        String name = file.getName();
+
         try {
-            File tempDir = null;
+            name = file.getCanonicalFile().getName();
+        } catch (IOException e) {
+            errorReporter.report("Failed to get canonical file name", e);
+        }
 
-            if (file.isDirectory()) {
-                if (!autoZipDirectory && !consolePromptHelper.promptForConfirmation(
-                    "The given file is a directory and cannot be uploaded as is. Zip it?")) {
-                    return false;
-                }
+        StagingArea.Staging staging = stagingArea.stage(name, ParallelZipWriter.estimateSize(file));
+        try {
+            File tempFile = new File(staging.getDirectory(), name + ".zip");
 
-                String name = file.getName();
+            log("Creating zip file at " + tempFile.getAbsolutePath());
 
-                try {
-                    name = file.getCanonicalFile().getName();
-                } catch (IOException e) {
-                    errorReporter.report("Failed to get canonical file name", e);
-                }
+            try (PhaseRecorder.Phase phase =
+                phaseRecorder.begin("zip", currentPackage.getPackageId(), name)) {
+                phase.setBytes(new ParallelZipWriter(zipThreads, compressionLevel)
+                    .pack(file, tempFile));
+            }
 
-                tempDir = Files.createTempDirectory("ss-" + name).toFile();
+            return new PreparedUpload(tempFile, staging);
+        } catch (IOException | RuntimeException e) {
+            staging.close();
+            throw e;
+        }
+    }
 
-                File tempFile = new File(tempDir, name + ".zip");
+    /**
+     * Spool everything read from stdin to a staging directory, through a fixed-size buffer, as a
+     * file with the given name. encryptAndUploadFile needs a File-backed FileManager and the total
+     * size before it creates the file.
+     */
+    private PreparedUpload spoolStdin(String name) throws IOException {
+        StagingArea.Staging staging = stagingArea.stage("stdin", 0);
+        try {
+            File spooled = new File(staging.getDirectory(), new File(name.trim()).getName());
 
-                if (tempFile.exists()) {
-                    throw new RuntimeException(
-                        "Zip file already exists at location " + tempFile.getAbsolutePath());
-                }
+            try (PhaseRecorder.Phase phase = phaseRecorder.begin("spool",
+                currentPackage.getPackageId(), spooled.getName())) {
+                phase.setBytes(staging.spool(System.in, spooled));
+            }
+
+            log("Read " + spooled.length() + " bytes from stdin");
+
+            return new PreparedUpload(spooled, staging);
+        } catch (IOException | RuntimeException e) {
+            staging.close();
+            throw e;
+        }
+    }
 
-                log("Creating zip file at " + tempFile.getAbsolutePath());
+    /**
+     * A file ready to upload, and the staging directory it was zipped or spooled into, if any,
+     * which is removed on close.
+     */
+    private class PreparedUpload implements AutoCloseable {
+        final File file;
+        final StagingArea.Staging staging;
 
-                ZipUtil.pack(file, tempFile);
+        PreparedUpload(File file, StagingArea.Staging staging) {
+            this.file = file;
+            this.staging = staging;
+        }
 
-                file = tempFile;
+        @Override
+        public void close() throws IOException {
+            if (staging != null) {
+                staging.close();
+                debug("Removed staging directory " + staging.getDirectory());
             }
+        }
+    }
+
+    /**
+     * Make an action undoable. Within a background upload the action belongs to its job, whose own
+     * undo entry was pushed when it was queued.
+     */
+    private void pushUndo(Runnable action) {
+        BackgroundJobs.Job job = BackgroundJobs.currentJob();
+
+        if (job != null) {
+            job.setUndo(action);
+        } else {
+            undoActions.push(action);
+        }
+    }
 
-            FileManager fileManager = createFileManager(file);
+    private boolean encryptAndUploadFile(File uploadedFile) {
+        if (splitBytes > 0 && uploadedFile.length() > splitBytes) {
+            return encryptAndUploadParts(uploadedFile);
+        }
 
-            final File uploadedFile = file;
+        FileManager fileManager = createFileManager(uploadedFile);
+
+        // Using try-with-resources to ensure the ProgressBar stream gets closed out after
+        // successful
+        // and failed file uploads
+        try (FileProgressBar fileProgressBar = openProgress("File Upload", "upload",
+            currentPackage.getPackageId(), uploadedFile.getName())) {
+
+            try (PhaseRecorder.Phase phase = phaseRecorder.begin("upload",
+                currentPackage.getPackageId(), uploadedFile.getName())) {
+                phase.setBytes(uploadedFile.length());
+
+                // A failed attempt may leave a partial file in the package; discard it
+                // before retrying so the upload stays idempotent.
+                com.sendsafely.File addedFile = this
+                    .<com.sendsafely.File, LimitExceededException, UploadFileException>callApi(
+                        "encryptAndUploadFile", () -> {
+                            discardPartialUpload(currentPackage.getPackageId(),
+                                currentPackage.getRootDirectoryId(), fileProgressBar);
+                            return sendSafelyAPI.encryptAndUploadFile(
+                                currentPackage.getPackageId(), currentPackage.getKeyCode(),
+                                fileManager, fileProgressBar);
+                        });
+
+                if (fileManager instanceof DigestingFileManager) {
+                    uploadManifest.add(uploadedFile.getName(), uploadedFile.length(),
+                        ((DigestingFileManager) fileManager).sha256());
+                }
 
-            // Using try-with-resources to ensure the ProgressBar stream gets closed out after
-            // successful
-            // and failed file uploads
-            try (ProgressBar progressBar = new ASCIIProgressBar("File Upload", 100)) {
-                FileProgressBar fileProgressBar = new FileProgressBar(progressBar);
+                pushUndo(() -> {
+                    try {
+                        deleteFile(uploadedFile, addedFile);
+                        uploadManifest.remove(uploadedFile.getName());
 
-                try {
-                    com.sendsafely.File addedFile =
-                        sendSafelyAPI.encryptAndUploadFile(currentPackage.getPackageId(),
-                            currentPackage.getKeyCode(), fileManager, fileProgressBar);
+                        log("Deleted file successfully");
+                    } catch (FileOperationFailedException | IOException e) {
+                        errorReporter.report("Failed to delete file from package", e);
+                    }
+                });
+
+                fileProgressBar.complete();
+
+                if (ndjson != null) {
+                    ndjson.write(fileEvent("uploaded", currentPackage.getPackageId(), addedFile)
+                        .put("path", uploadedFile.getAbsolutePath()));
+                }
+            } catch (LimitExceededException | UploadFileException | IOException | CLIException e) {
+                errorReporter.report("Failed to upload file", e);
+
+                return false;
+            }
+        }
+
+        log("File successfully uploaded");
 
-                    undoActions.push(() -> {
-                        try {
-                            deleteFile(uploadedFile, addedFile);
+        return true;
+    }
 
-                            log("Deleted file successfully");
-                        } catch (FileOperationFailedException | IOException e) {
-                            errorReporter.report("Failed to delete file from package", e);
+    /**
+     * Upload a file larger than --split-size as parts of that size, several at once. The SDK
+     * encrypts and uploads a file's chunks one after another, so a single large file would
+     * otherwise keep one core and one connection busy; as separate package files, parts are
+     * encrypted and sent concurrently, under the same retry policy and concurrency limit as every
+     * other call. If any part fails, the others are cancelled and every part that reached the
+     * package is deleted, so it never holds an incomplete set.
+     */
+    private boolean encryptAndUploadParts(File uploadedFile) {
+        String packageId = currentPackage.getPackageId();
+        String keycode = currentPackage.getKeyCode();
+        String rootDirectoryId = currentPackage.getRootDirectoryId();
+        List<FileProgressBar> partProgress = new ArrayList<>();
+        List<CompletableFuture<com.sendsafely.File>> uploads = new ArrayList<>();
+
+        try (FileParts parts = new FileParts(uploadedFile, splitBytes, attachManifest);
+            FileProgressBar fileProgressBar = openProgress("File Upload", "upload", packageId,
+                uploadedFile.getName());
+            PhaseRecorder.Phase phase =
+                phaseRecorder.begin("upload", packageId, uploadedFile.getName())) {
+            phase.setBytes(uploadedFile.length());
+            log("Uploading " + uploadedFile.getName() + " as " + parts.getParts().size() + " parts");
+
+            int[] percents = new int[parts.getParts().size()];
+            for (FileParts.Part part : parts.getParts()) {
+                int index = partProgress.size();
+                FileProgressBar progress = new FileProgressBar(null, percent -> {
+                    // Overall progress is each part's progress weighted by its size
+                    synchronized (percents) {
+                        percents[index] = percent;
+                        double done = 0;
+                        for (int i = 0; i < percents.length; i++) {
+                            done += parts.getParts().get(i).length() * (percents[i] / 100.0);
                         }
-                    });
+                        fileProgressBar.updateProgress(null, done / uploadedFile.length());
+                    }
+                });
+
+                partProgress.add(progress);
+                uploads.add(asyncApi().supply("encryptAndUploadFile", () -> {
+                    discardPartialUpload(packageId, rootDirectoryId, progress);
+                    return sendSafelyAPI.encryptAndUploadFile(packageId, keycode, part, progress);
+                }));
+            }
+
+            for (CompletableFuture<com.sendsafely.File> upload : uploads) {
+                upload.whenComplete((added, error) -> {
+                    if (error != null) {
+                        uploads.forEach(other -> other.cancel(true));
+                    }
+                });
+            }
 
-                    progressBar.stepTo(100);
-                } catch (LimitExceededException | UploadFileException e) {
-                    errorReporter.report("Failed to upload file", e);
+            Throwable failure = null;
+            List<com.sendsafely.File> addedParts = new ArrayList<>();
+            for (CompletableFuture<com.sendsafely.File> upload : uploads) {
+                try {
+                    addedParts.add(upload.join());
+                } catch (CompletionException | CancellationException e) {
+                    Throwable cause = AsyncSendSafely.unwrap(e);
+                    if (failure == null || failure instanceof CancellationException) {
+                        failure = cause;
+                    }
                 }
             }
 
-            log("File successfully uploaded");
+            if (failure != null) {
+                discardParts(packageId, rootDirectoryId, partProgress);
+                errorReporter.report("Failed to upload file", failure);
 
-            if (tempDir != null) {
-                FileUtils.deleteDirectory(tempDir);
+                return false;
+            }
 
-                log("Temporary zip file deleted");
+            if (attachManifest) {
+                for (FileParts.Part part : parts.getParts()) {
+                    uploadManifest.add(part.getName(), part.length(), part.sha256());
+                }
             }
 
-            return true;
-        } catch (FilePromptException e) {
-            errorReporter.report("SendSafely operation failed", e);
+            pushUndo(() -> {
+                discardParts(packageId, rootDirectoryId, partProgress);
+                parts.getParts().forEach(part -> uploadManifest.remove(part.getName()));
 
-            if (consolePromptHelper.promptForConfirmation("Try a new file?")) {
-                return uploadFile();
+                log("Deleted file successfully");
+            });
+
+            fileProgressBar.complete();
+
+            if (ndjson != null) {
+                for (com.sendsafely.File addedPart : addedParts) {
+                    ndjson.write(fileEvent("uploaded", packageId, addedPart)
+                        .put("path", uploadedFile.getAbsolutePath()));
+                }
             }
+        } catch (IOException e) {
+            errorReporter.report("Failed to upload file", e);
 
             return false;
         }
+
+        log("File successfully uploaded");
+
+        return true;
+    }
+
+    /**
+     * Delete every part of a split upload that reached the package.
+     */
+    private void discardParts(String packageId, String rootDirectoryId,
+        List<FileProgressBar> partProgress) {
+        for (FileProgressBar progress : partProgress) {
+            if (progress.getFileId() == null)
+                continue;
+
+            try {
+                this.<Void, FileOperationFailedException, RuntimeException>callApi("deleteFile", () -> {
+                    sendSafelyAPI.deleteFile(packageId, rootDirectoryId, progress.getFileId());
+                    return null;
+                });
+            } catch (FileOperationFailedException e) {
+                errorReporter.report("Failed to delete file part from package", e);
+            }
+        }
+    }
+
+    /**
+     * Delete the file a failed upload attempt left in the package, so the retry doesn't add a
+     * second copy.
+     *
+     * @throws CLIException If the partial file couldn't be deleted, which stops the retry
+     */
+    private void discardPartialUpload(String packageId, String rootDirectoryId,
+        FileProgressBar fileProgressBar) {
+        String partialFileId = fileProgressBar.getFileId();
+
+        if (partialFileId == null)
+            return;
+
+        try {
+            sendSafelyAPI.deleteFile(packageId, rootDirectoryId, partialFileId);
+        } catch (FileOperationFailedException e) {
+            // Suppressed rather than the cause, so a transient-looking failure isn't retried
+            CLIException failure = new CLIException("Failed to discard partially uploaded file "
+                + partialFileId + "; not retrying, so the package doesn't get a duplicate");
+            failure.addSuppressed(e);
+            throw failure;
+        }
+
+        fileProgressBar.reset();
     }
 
     /**
      * Quit the app with exit code 0.
      */
     public void quit() {
+        connectionWarmer.close();
         log("Bye ♥");
 
         System.exit(0);
@@ -993,16 +2721,26 @@ class SendSafelyCLI implements Callable<Integer> {
      * Finalize the current package and print out a secure link to that package.
      */
     public boolean finalizePackage() {
-        try {
+        try (PhaseRecorder.Phase phase =
+            phaseRecorder.begin("finalize", currentPackage.getPackageId(), null)) {
             PackageURL packageURL = sendSafelyAPI.finalizePackage(currentPackage.getPackageId(),
                 currentPackage.getKeyCode());
+            lastSecureLink = packageURL.getSecureLink();
 
-            System.out.println("Secure link: " + packageURL.getSecureLink());
+            if (ndjson != null) {
+                ndjson.write(ndjson.event("package")
+                    .put("event", "finalized")
+                    .put("packageId", currentPackage.getPackageId())
+                    .put("secureLink", packageURL.getSecureLink()));
+            } else {
+                System.out.println("Secure link: " + packageURL.getSecureLink());
+            }
 
             undoActions.clear();
             undoActions.push(() -> {
                 System.err.println("Cannot unfinalize a package (that I'm aware of)");
             });
+            backgroundUploads.clearFinished();
 
             clearCurrentPackage();
 
@@ -1020,7 +2758,8 @@ class SendSafelyCLI implements Callable<Integer> {
      */
     public void addRecipients() throws IOException {
         String recipientEmail =
-            consolePromptHelper.promptForString("Enter recipient email:").trim();
+            whileWaitingOnUser(() -> consolePromptHelper.promptForString("Enter recipient email:"))
+                .trim();
 
         addRecipients(recipientEmail);
     }
@@ -1040,9 +2779,13 @@ class SendSafelyCLI implements Callable<Integer> {
             return false;
         }
 
-        try {
-            Recipient recipient =
-                sendSafelyAPI.addRecipient(currentPackage.getPackageId(), recipientEmail);
+        try (PhaseRecorder.Phase phase =
+            phaseRecorder.begin("add-recipient", currentPackage.getPackageId(), null)) {
+            // Adding the same email to a package twice yields the same recipient, so retrying
+            // is safe.
+            Recipient recipient = this
+                .<Recipient, LimitExceededException, RecipientFailedException>callApi("addRecipient",
+                    () -> sendSafelyAPI.addRecipient(currentPackage.getPackageId(), recipientEmail));
 
             addedRecipients.add(recipientEmail);
 
@@ -1075,6 +2818,14 @@ class SendSafelyCLI implements Callable<Integer> {
         if (quiet)
             return;
 
-        System.out.println(message);
+        // Keep stdout for data when writing NDJSON or file content.
+        (ndjson != null || toStdout ? System.err : System.out).println(message);
+    }
+
+    private void debug(String message) {
+        if (!debug)
+            return;
+
+        System.err.println("[debug] " + message);
     }
 }
@@ -0,0 +1,145 @@
+package com.sendsafely.cliapp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pushes work items through a fixed sequence of stages. Every stage has its own bounded thread
+ * pool, so different items can be in different stages at the same time while no stage runs more
+ * than its configured number of items at once. An item that fails a stage skips all later stages.
+ *
+ * @param <T> The work item passed from stage to stage
+ */
+public class StagedPipeline<T> {
+    private final List<Stage<T>> stages = new ArrayList<>();
+
+    /**
+     * Append a stage.
+     *
+     * @param name The stage name, used for thread names and failure reports
+     * @param concurrency The maximum number of items in this stage at once
+     * @param work The work to do on an item
+     */
+    public StagedPipeline<T> stage(String name, int concurrency, Work<T> work) {
+        stages.add(new Stage<>(name, Math.max(1, concurrency), work));
+        return this;
+    }
+
+    /**
+     * Run every item through all stages and wait for them to finish.
+     *
+     * @return One result per item, in input order
+     */
+    public List<Result<T>> run(List<T> items) {
+        List<ExecutorService> executors = new ArrayList<>();
+        for (Stage<T> stage : stages) {
+            executors.add(Executors.newFixedThreadPool(stage.concurrency,
+                new ThreadFactoryBuilder().setNameFormat("ss-" + stage.name + "-%d")
+                    .setDaemon(true).build()));
+        }
+
+        try {
+            List<CompletableFuture<T>> futures = new ArrayList<>();
+            for (T item : items) {
+                CompletableFuture<T> future = CompletableFuture.completedFuture(item);
+                for (int i = 0; i < stages.size(); i++) {
+                    Stage<T> stage = stages.get(i);
+                    future = future.thenApplyAsync(value -> stage.apply(value), executors.get(i));
+                }
+                futures.add(future);
+            }
+
+            List<Result<T>> results = new ArrayList<>();
+            for (int i = 0; i < items.size(); i++) {
+                try {
+                    results.add(new Result<>(futures.get(i).join(), null, null));
+                } catch (CompletionException e) {
+                    if (!(e.getCause() instanceof StageException)) {
+                        throw e;
+                    }
+                    StageException failure = (StageException) e.getCause();
+                    results.add(new Result<>(items.get(i), failure.stage, failure.getCause()));
+                }
+            }
+            return results;
+        } finally {
+            executors.forEach(ExecutorService::shutdownNow);
+        }
+    }
+
+    /**
+     * The work a stage does on an item.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T apply(T item) throws Exception;
+    }
+
+    /**
+     * The outcome for one item.
+     */
+    public static class Result<T> {
+        private final T item;
+        private final String failedStage;
+        private final Throwable failure;
+
+        Result(T item, String failedStage, Throwable failure) {
+            this.item = item;
+            this.failedStage = failedStage;
+            this.failure = failure;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        /**
+         * The name of the stage that failed, or null on success.
+         */
+        public String getFailedStage() {
+            return failedStage;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    private static class Stage<T> {
+        final String name;
+        final int concurrency;
+        final Work<T> work;
+
+        Stage(String name, int concurrency, Work<T> work) {
+            this.name = name;
+            this.concurrency = concurrency;
+            this.work = work;
+        }
+
+        T apply(T item) {
+            try {
+                return work.apply(item);
+            } catch (Exception e) {
+                throw new StageException(name, e);
+            }
+        }
+    }
+
+    private static class StageException extends RuntimeException {
+        final String stage;
+
+        StageException(String stage, Throwable cause) {
+            super(cause);
+            this.stage = stage;
+        }
+    }
+}
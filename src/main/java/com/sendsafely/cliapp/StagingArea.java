@@ -0,0 +1,251 @@
+package com.sendsafely.cliapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Hands out the temporary directories that zipped uploads and spooled stdin are written to. Every
+ * directory is created under one configurable root, checked against the free space there and the
+ * run's quota before anything is written, and deleted when it is closed, whether or not the upload
+ * succeeded.
+ *
+ * <p>Each directory holds a lock file for as long as it is in use, so directories left behind by a
+ * process that died can be told apart from ones still in use by another run and swept up.
+ */
+public class StagingArea {
+    static final String PREFIX = "ss-";
+    static final String LOCK_FILE = ".ss-staging.lock";
+
+    private static final Pattern SIZE = Pattern.compile("(\\d+)\\s*([kmgt]?)i?b?", Pattern.CASE_INSENSITIVE);
+    // Left free on the staging disk beyond the estimate, so staging never fills it completely
+    private static final long SPACE_MARGIN = 64L * 1024 * 1024;
+    // How far ahead spooling claims space, so the free-space check isn't repeated per buffer
+    private static final long SPOOL_RESERVATION_STEP = 64L * 1024 * 1024;
+
+    private final File root;
+    private final long quotaBytes;
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * @param root The directory to stage in, or null for the system temporary directory
+     * @param quotaBytes The most this run may stage at once, or 0 for no limit
+     */
+    public StagingArea(File root, long quotaBytes) {
+        this.root = root != null ? root : new File(System.getProperty("java.io.tmpdir"));
+        this.quotaBytes = quotaBytes;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Create a staging directory for about the given number of bytes.
+     *
+     * @param name Part of the directory name, to make it recognizable
+     * @param estimatedBytes How much will be written to it, or 0 if unknown
+     */
+    public Staging stage(String name, long estimatedBytes) throws IOException {
+        Files.createDirectories(root.toPath());
+        reserve(estimatedBytes);
+
+        File directory = null;
+        FileChannel lockChannel = null;
+
+        try {
+            directory = Files.createTempDirectory(root.toPath(), PREFIX + name + "-").toFile();
+            lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new Staging(directory, lockChannel, lockChannel.lock(), estimatedBytes);
+        } catch (IOException | RuntimeException e) {
+            reserved.addAndGet(-estimatedBytes);
+            IOUtils.closeQuietly(lockChannel);
+            FileUtils.deleteQuietly(directory);
+            throw e;
+        }
+    }
+
+    private void reserve(long bytes) throws IOException {
+        long total = reserved.addAndGet(bytes);
+
+        if (quotaBytes > 0 && total > quotaBytes) {
+            reserved.addAndGet(-bytes);
+            throw new IOException("Staging " + bytes + " more bytes would exceed the staging quota of "
+                + quotaBytes + " bytes; raise --staging-quota");
+        }
+
+        long usable = root.getUsableSpace();
+        if (bytes > 0 && usable < bytes + SPACE_MARGIN) {
+            reserved.addAndGet(-bytes);
+            throw new IOException("Not enough free space in " + root + " to stage " + bytes
+                + " bytes (" + usable + " available); use --staging-dir to stage elsewhere");
+        }
+    }
+
+    /**
+     * Delete staging directories left behind by runs that are no longer alive: those whose lock
+     * file is not held by anyone, and lock-less ones from older versions that only hold zips and
+     * are older than the given age.
+     *
+     * @return The directories deleted
+     */
+    public List<File> sweep(Duration legacyAge) {
+        List<File> swept = new ArrayList<>();
+        File[] children = root.listFiles(
+            file -> file.isDirectory() && file.getName().startsWith(PREFIX));
+
+        if (children == null) {
+            return swept;
+        }
+
+        for (File directory : children) {
+            try {
+                if (isOrphaned(directory, legacyAge)) {
+                    FileUtils.deleteDirectory(directory);
+                    swept.add(directory);
+                }
+            } catch (IOException e) {
+                // Whatever can't be deleted now is tried again on the next start
+            }
+        }
+
+        return swept;
+    }
+
+    private boolean isOrphaned(File directory, Duration legacyAge) throws IOException {
+        File lockFile = new File(directory, LOCK_FILE);
+
+        if (!lockFile.exists()) {
+            File[] contents = directory.listFiles();
+            return contents != null
+                && System.currentTimeMillis() - directory.lastModified() > legacyAge.toMillis()
+                && contents.length > 0
+                && Arrays.stream(contents)
+                    .allMatch(file -> file.isFile() && file.getName().endsWith(".zip"));
+        }
+
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            // Locked by this process
+            return false;
+        }
+    }
+
+    /**
+     * Parse a size such as "500M", "20G" or "1024".
+     */
+    public static long parseSize(String value) {
+        Matcher matcher = SIZE.matcher(value.trim());
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(
+                "Invalid size '" + value + "'. Use a number optionally followed by K, M, G or T, e.g. 20G");
+        }
+
+        long amount = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2).toLowerCase(Locale.ROOT)) {
+            case "k":
+                return amount << 10;
+            case "m":
+                return amount << 20;
+            case "g":
+                return amount << 30;
+            case "t":
+                return amount << 40;
+            default:
+                return amount;
+        }
+    }
+
+    /**
+     * One staging directory, deleted on close.
+     */
+    public class Staging implements AutoCloseable {
+        private final File directory;
+        private final FileChannel lockChannel;
+        private final FileLock lock;
+        private long reservedBytes;
+
+        Staging(File directory, FileChannel lockChannel, FileLock lock, long reservedBytes) {
+            this.directory = directory;
+            this.lockChannel = lockChannel;
+            this.lock = lock;
+            this.reservedBytes = reservedBytes;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        /**
+         * Claim more space once more is known to be needed than was estimated, e.g. while spooling
+         * stdin, failing if the quota or free space would be exceeded.
+         */
+        public void grow(long totalBytes) throws IOException {
+            if (totalBytes > reservedBytes) {
+                reserve(totalBytes - reservedBytes);
+                reservedBytes = totalBytes;
+            }
+        }
+
+        /**
+         * Copy a stream of unknown length into a file in this directory, claiming space as it
+         * grows.
+         *
+         * @return The number of bytes copied
+         */
+        public long spool(InputStream in, File destination) throws IOException {
+            byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+
+            try (OutputStream out = Files.newOutputStream(destination.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    if (total + read > reservedBytes) {
+                        grow(total + read + SPOOL_RESERVATION_STEP);
+                    }
+                    out.write(buffer, 0, read);
+                    total += read;
+                }
+            }
+
+            return total;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lock.release();
+                lockChannel.close();
+                FileUtils.deleteDirectory(directory);
+            } finally {
+                reserved.addAndGet(-reservedBytes);
+            }
+        }
+    }
+}
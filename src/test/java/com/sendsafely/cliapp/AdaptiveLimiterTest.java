@@ -0,0 +1,54 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sendsafely.exceptions.LimitExceededException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveLimiterTest {
+    @Test
+    void halvesLimitWhenApiReportsLimitExceeded() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 16);
+
+        assertThrows(LimitExceededException.class, () -> limiter.call(() -> {
+            throw new LimitExceededException();
+        }));
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void neverDropsBelowOne() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 4);
+
+        assertThrows(java.net.SocketTimeoutException.class, () -> limiter.call(() -> {
+            throw new java.net.SocketTimeoutException("Read timed out");
+        }));
+
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    void growsOnlyWhileCallersSaturateTheLimit() {
+        AtomicLong now = new AtomicLong();
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 4, now::get);
+
+        // A single caller saturates a limit of one, and its throughput improved on nothing.
+        limiter.call(() -> null);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        limiter.call(() -> null);
+        assertEquals(2, limiter.getLimit());
+
+        // The same caller can never use a second slot, so faster calls must not raise the limit.
+        for (int i = 0; i < 10; i++) {
+            limiter.call(() -> null);
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        limiter.call(() -> null);
+        assertEquals(2, limiter.getLimit());
+    }
+}
@@ -0,0 +1,59 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.sendsafely.Package;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+class ArchiveSelectorTest {
+    private static final Instant NOW = Instant.parse("2024-06-01T00:00:00Z");
+
+    @Test
+    void parsesAges() {
+        assertEquals(Duration.ofDays(30), ArchiveSelector.parseAge("30d"));
+        assertEquals(Duration.ofHours(12), ArchiveSelector.parseAge("12H"));
+        assertEquals(Duration.ofDays(14), ArchiveSelector.parseAge("2w"));
+        assertThrows(IllegalArgumentException.class, () -> ArchiveSelector.parseAge("soon"));
+    }
+
+    @Test
+    void matchesOnlyOlderPackages() {
+        ArchiveSelector selector = new ArchiveSelector(Duration.ofDays(30), new String[0], NOW);
+
+        assertTrue(selector.matches(createdAt(NOW.minus(Duration.ofDays(31)))));
+        assertFalse(selector.matches(createdAt(NOW.minus(Duration.ofDays(29)))));
+    }
+
+    @Test
+    void matchesStatesByTheirShortName() {
+        ArchiveSelector selector = new ArchiveSelector(null, new String[] {"Finalized", "in-progress"},
+            NOW);
+
+        assertTrue(selector.matchesState("PACKAGE_STATE_FINALIZED"));
+        assertTrue(selector.matchesState("PACKAGE_STATE_IN_PROGRESS"));
+        assertFalse(selector.matchesState("PACKAGE_STATE_EXPIRED"));
+        assertFalse(selector.matchesState(null));
+    }
+
+    @Test
+    void matchesEverythingWithoutFilters() {
+        ArchiveSelector selector = new ArchiveSelector(null, new String[0], NOW);
+
+        assertFalse(selector.hasFilters());
+        assertTrue(selector.matches(mock(Package.class)));
+    }
+
+    private Package createdAt(Instant created) {
+        Package p = mock(Package.class);
+        when(p.getPackageTimestamp()).thenReturn(Date.from(created));
+        return p;
+    }
+}
@@ -0,0 +1,90 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.sendsafely.Recipient;
+import com.sendsafely.SendSafely;
+import com.sendsafely.exceptions.RecipientFailedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncSendSafelyTest {
+    private final SendSafely client = mock(SendSafely.class);
+    private final ExecutorService executor = AsyncSendSafely.newExecutor(2);
+    private final List<String> invoked = Collections.synchronizedList(new ArrayList<>());
+    private final AsyncSendSafely api = new AsyncSendSafely(client, executor, this::invoke);
+
+    private <T> T invoke(String name, AsyncSendSafely.Call<T> call) throws Exception {
+        invoked.add(name);
+        return call.call();
+    }
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void runsCallsThroughTheInvoker() throws Exception {
+        Recipient recipient = mock(Recipient.class);
+        when(client.addRecipient("package", "someone@example.com")).thenReturn(recipient);
+
+        assertSame(recipient, api.addRecipient("package", "someone@example.com").join());
+        assertEquals(Collections.singletonList("addRecipient"), invoked);
+    }
+
+    @Test
+    void failsWithTheSdkException() throws Exception {
+        RecipientFailedException failure = new RecipientFailedException();
+        when(client.addRecipient("package", "nobody")).thenThrow(failure);
+
+        CompletionException error = assertThrows(CompletionException.class,
+            () -> api.addRecipient("package", "nobody").join());
+        assertSame(failure, AsyncSendSafely.unwrap(error));
+    }
+
+    @Test
+    void joinRethrowsTheSdkException() throws Exception {
+        RecipientFailedException failure = new RecipientFailedException();
+        when(client.addRecipient("package", "nobody")).thenThrow(failure);
+
+        RecipientFailedException error = assertThrows(RecipientFailedException.class,
+            () -> AsyncSendSafely.<Recipient, RecipientFailedException>join(
+                api.addRecipient("package", "nobody")));
+        assertSame(failure, error);
+    }
+
+    @Test
+    void cancellingInterruptsTheCall() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        CompletableFuture<Object> call = api.supply("slow", () -> {
+            started.countDown();
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(call.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(call.isCancelled());
+    }
+}
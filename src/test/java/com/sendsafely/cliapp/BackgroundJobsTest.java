@@ -0,0 +1,73 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BackgroundJobsTest {
+    private final BackgroundJobs jobs = new BackgroundJobs("upload", mock(ErrorReporter.class));
+
+    @Test
+    void undoDropsQueuedJobsAndUndoesRunningOnesWhenTheyFinish() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger undone = new AtomicInteger();
+        AtomicInteger ran = new AtomicInteger();
+
+        BackgroundJobs.Job running = jobs.submit("big.bin", () -> {
+            BackgroundJobs.currentJob().setPercent(42);
+            BackgroundJobs.currentJob().setUndo(undone::incrementAndGet);
+            started.countDown();
+            release.await();
+            return true;
+        });
+        BackgroundJobs.Job queued = jobs.submit("small.bin", () -> ran.incrementAndGet() > 0);
+
+        started.await();
+        assertEquals("upload of big.bin 42%, 1 queued", jobs.status());
+
+        assertEquals(BackgroundJobs.State.QUEUED, queued.undo());
+        assertEquals(BackgroundJobs.State.RUNNING, running.undo());
+        assertEquals(0, undone.get());
+
+        release.countDown();
+        assertEquals(0, jobs.awaitAll());
+
+        assertEquals(1, undone.get());
+        assertEquals(0, ran.get());
+        assertSame(BackgroundJobs.State.CANCELLED, queued.getState());
+        assertEquals("", jobs.status());
+    }
+
+    @Test
+    void undoesFinishedJobsOnceAndCountsFailures() throws InterruptedException {
+        AtomicInteger undone = new AtomicInteger();
+
+        BackgroundJobs.Job uploaded = jobs.submit("a.txt", () -> {
+            BackgroundJobs.currentJob().setUndo(undone::incrementAndGet);
+            return true;
+        });
+        jobs.submit("b.txt", () -> false);
+        jobs.submit("c.txt", () -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertEquals(2, jobs.awaitAll());
+        assertEquals(0, jobs.getOutstanding());
+        assertEquals("2 failed", jobs.status());
+        assertNull(BackgroundJobs.currentJob());
+
+        uploaded.undo();
+        uploaded.undo();
+        assertEquals(1, undone.get());
+
+        jobs.clearFinished();
+        assertTrue(jobs.status().isEmpty());
+    }
+}
@@ -0,0 +1,55 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ConnectionWarmerTest {
+    private final ConnectionWarmer warmer = new ConnectionWarmer(10, 3);
+
+    @AfterEach
+    void close() {
+        warmer.close();
+    }
+
+    @Test
+    void pingsUpToTheLimitPerPrompt() throws InterruptedException {
+        AtomicInteger pings = new AtomicInteger();
+        CountDownLatch failed = new CountDownLatch(1);
+
+        warmer.start(() -> {
+            pings.incrementAndGet();
+            failed.countDown();
+            throw new IllegalStateException("offline");
+        });
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(3, pings.get());
+    }
+
+    @Test
+    void stopsWhenThePromptIsAnswered() throws InterruptedException {
+        AtomicInteger pings = new AtomicInteger();
+        CountDownLatch pinged = new CountDownLatch(1);
+
+        warmer.start(() -> {
+            pings.incrementAndGet();
+            pinged.countDown();
+            return null;
+        });
+        assertTrue(pinged.await(5, TimeUnit.SECONDS));
+        warmer.stop();
+        // Let a ping that was already under way finish
+        Thread.sleep(50);
+
+        int afterStop = pings.get();
+        Thread.sleep(100);
+        assertEquals(afterStop, pings.get());
+    }
+}
@@ -0,0 +1,59 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ConsolePromptHelperTest {
+    private static final Map<ActionType, String> OPTIONS = ImmutableMap.of(
+        ActionType.LOGIN, "Login",
+        ActionType.QUIT, "Quit");
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private ConsolePromptHelper helper(String input) {
+        return new ConsolePromptHelper(new BufferedReader(new StringReader(input)),
+            new PrintStream(output));
+    }
+
+    @Test
+    void answersMenusByNumberOrName() throws IOException {
+        ConsolePromptHelper helper = helper("2\nlogin\nQuit\n");
+
+        assertFalse(helper.isTerminal());
+        assertEquals(ActionType.QUIT, helper.promptForAction("What now?", OPTIONS));
+        assertEquals(ActionType.LOGIN, helper.promptForAction("What now?", OPTIONS));
+        assertEquals(ActionType.QUIT, helper.promptForAction("What now?", OPTIONS));
+        assertTrue(output.toString().contains("  1) Login"));
+    }
+
+    @Test
+    void asksAgainUntilTheAnswerIsValid() throws IOException {
+        ConsolePromptHelper helper = helper("7\n1\nmaybe\nYes\nn\n");
+
+        assertEquals(ActionType.LOGIN, helper.promptForAction("What now?", OPTIONS));
+        assertTrue(helper.promptForConfirmation("Zip it?"));
+        assertFalse(helper.promptForConfirmation("Zip it?"));
+        assertTrue(output.toString().contains("Please answer with a number from 1 to 2"));
+        assertTrue(output.toString().contains("Please answer y or n"));
+    }
+
+    @Test
+    void failsInsteadOfWaitingWhenInputEnds() throws IOException {
+        ConsolePromptHelper helper = helper("api-key\n");
+
+        assertEquals("api-key", helper.promptForPrivateString("Enter api key:"));
+        assertThrows(IOException.class, () -> helper.promptForString("Enter api secret:"));
+        assertThrows(IOException.class, () -> helper.promptForAction("What now?", OPTIONS));
+    }
+}
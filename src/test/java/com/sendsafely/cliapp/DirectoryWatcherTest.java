@@ -0,0 +1,75 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+@Timeout(30)
+class DirectoryWatcherTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void groupsFilesArrivingTogether() throws Exception {
+        Files.write(temp.resolve("existing.txt"), new byte[] {1});
+        Files.write(temp.resolve(".hidden"), new byte[] {1});
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(temp, 200, Collections.emptySet())) {
+            assertEquals(Collections.singleton("existing.txt"), names(watcher.nextBatch()));
+
+            Files.write(temp.resolve("a.txt"), new byte[] {1});
+            Files.write(temp.resolve("b.txt"), new byte[] {2});
+            assertEquals(new HashSet<>(Arrays.asList("a.txt", "b.txt")), names(watcher.nextBatch()));
+        }
+    }
+
+    @Test
+    void skipsHandledFilesUntilTheyChange() throws Exception {
+        File sent = Files.write(temp.resolve("sent.txt"), new byte[] {1}).toFile();
+        Set<String> handled = Collections.singleton(DirectoryWatcher.fingerprint(sent));
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(temp, 200, handled)) {
+            Files.write(temp.resolve("new.txt"), new byte[] {1});
+            assertEquals(Collections.singleton("new.txt"), names(watcher.nextBatch()));
+
+            Files.write(sent.toPath(), new byte[] {1, 2});
+            assertEquals(Collections.singleton("sent.txt"), names(watcher.nextBatch()));
+        }
+    }
+
+    @Test
+    void returnsNullOnceClosed() throws Exception {
+        DirectoryWatcher watcher = new DirectoryWatcher(temp, 200, Collections.emptySet());
+        CompletableFuture<List<File>> batch = CompletableFuture.supplyAsync(() -> {
+            try {
+                return watcher.nextBatch();
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(100);
+        watcher.close();
+
+        assertNull(batch.get(10, TimeUnit.SECONDS));
+    }
+
+    private static Set<String> names(List<File> files) {
+        return files.stream().map(File::getName).collect(Collectors.toSet());
+    }
+}
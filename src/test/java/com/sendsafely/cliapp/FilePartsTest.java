@@ -0,0 +1,79 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FilePartsTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void partsReadBackAsTheWholeFile() throws IOException {
+        byte[] data = new byte[10_000];
+        new Random(42).nextBytes(data);
+        File file = Files.write(temp.resolve("data.bin"), data).toFile();
+        File joined = temp.resolve("joined.bin").toFile();
+
+        try (FileParts parts = new FileParts(file, 4096, true);
+            FileChannel out = FileChannel.open(joined.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            assertEquals(3, parts.getParts().size());
+            assertEquals("data.bin.part-003-of-003", parts.getParts().get(2).getName());
+            assertEquals(10_000 - 2 * 4096, parts.getParts().get(2).length());
+
+            for (FileParts.Part part : parts.getParts()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (InputStream in = part.getInputStream()) {
+                    IOUtils.copy(in, bytes);
+                }
+
+                File downloaded = temp.resolve(part.getName()).toFile();
+                Files.write(downloaded.toPath(), bytes.toByteArray());
+                assertEquals(PackageManifest.sha256(downloaded), part.sha256());
+                FileParts.append(downloaded, out);
+            }
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(joined.toPath()));
+    }
+
+    @Test
+    void parsesPartNames() {
+        FileParts.PartName part = FileParts.parseName(FileParts.partName("a.part-1.tar", 7, 1200));
+
+        assertEquals("a.part-1.tar", part.getFileName());
+        assertEquals(7, part.getIndex());
+        assertEquals(1200, part.getCount());
+        assertNull(FileParts.parseName("a.tar"));
+        assertNull(FileParts.parseName("a.tar.part-004-of-003"));
+    }
+
+    @Test
+    void onlyGroupsCompleteSplitFiles() {
+        List<String> names = Arrays.asList("notes.txt", "a.part-002-of-002", "a.part-001-of-002",
+            "b.part-001-of-002", "c.part-001-of-002", "c.part-001-of-002", "c.part-002-of-002");
+
+        Map<String, List<String>> groups = FileParts.completeGroups(names, Function.identity());
+
+        assertEquals(1, groups.size());
+        assertEquals(Arrays.asList("a.part-001-of-002", "a.part-002-of-002"), groups.get("a"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HttpTransportTest {
+    private static final List<String> PROPERTIES = Arrays.asList("http.keepAlive",
+        "http.maxConnections", "sun.net.client.defaultConnectTimeout",
+        "sun.net.client.defaultReadTimeout", "http.proxyHost", "http.proxyPort", "https.proxyHost",
+        "https.proxyPort");
+
+    private final Map<String, String> saved = new HashMap<>();
+
+    @BeforeEach
+    void clearProperties() {
+        for (String property : PROPERTIES) {
+            saved.put(property, System.getProperty(property));
+            System.clearProperty(property);
+        }
+    }
+
+    @AfterEach
+    void restoreProperties() {
+        saved.forEach((property, value) -> {
+            if (value == null) {
+                System.clearProperty(property);
+            } else {
+                System.setProperty(property, value);
+            }
+        });
+    }
+
+    @Test
+    void parsesProxiesWithAndWithoutASchemeOrPort() {
+        URI bare = HttpTransport.parseProxy("proxy.example.com:3128");
+        assertEquals("proxy.example.com", bare.getHost());
+        assertEquals(3128, bare.getPort());
+
+        URI withScheme = HttpTransport.parseProxy("http://proxy.example.com:8080");
+        assertEquals("proxy.example.com", withScheme.getHost());
+        assertEquals(8080, withScheme.getPort());
+
+        assertEquals(-1, HttpTransport.parseProxy("proxy.example.com").getPort());
+        assertEquals(-1, HttpTransport.parseProxy("http://proxy.example.com").getPort());
+    }
+
+    @Test
+    void rejectsAProxyWithoutAHost() {
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+            () -> HttpTransport.parseProxy(":3128"));
+
+        assertTrue(error.getMessage().contains("host:port"));
+    }
+
+    @Test
+    void appliesTheProxyAndDefaultsItsPort() {
+        HttpTransport.configure(4, 1000, 2000, "proxy.example.com");
+
+        assertEquals("proxy.example.com", System.getProperty("http.proxyHost"));
+        assertEquals("80", System.getProperty("http.proxyPort"));
+        assertEquals("proxy.example.com", System.getProperty("https.proxyHost"));
+        assertEquals("80", System.getProperty("https.proxyPort"));
+        assertEquals("4", System.getProperty("http.maxConnections"));
+        assertEquals("1000", System.getProperty("sun.net.client.defaultConnectTimeout"));
+        assertEquals("2000", System.getProperty("sun.net.client.defaultReadTimeout"));
+    }
+
+    @Test
+    void keepsPropertiesAlreadySetOnTheCommandLine() {
+        System.setProperty("http.keepAlive", "false");
+        System.setProperty("https.proxyPort", "8443");
+
+        HttpTransport.configure(4, 1000, 2000, "proxy.example.com:3128");
+
+        assertEquals("false", System.getProperty("http.keepAlive"));
+        assertEquals("8443", System.getProperty("https.proxyPort"));
+        assertEquals("3128", System.getProperty("http.proxyPort"));
+    }
+}
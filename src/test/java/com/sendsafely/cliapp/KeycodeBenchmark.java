@@ -0,0 +1,97 @@
+package com.sendsafely.cliapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sendsafely.Privatekey;
+import com.sendsafely.SendSafely;
+import com.sendsafely.dto.PackageReference;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Times uncached keycode retrieval for the first active packages of a real account, once with a
+ * new private key per lookup, the way the CLI used to do it, and once with one shared private key.
+ * Both go straight to the SDK, so the per-run keycode memo doesn't hide the difference. The
+ * stand-in server returns keycodes unencrypted, so this needs an account with a key pair from
+ * `ss --keygen`.
+ */
+@Command(
+    name = "ss-keycode-bench",
+    mixinStandardHelpOptions = true,
+    description = "Keycode retrieval benchmark for the SendSafely CLI")
+class KeycodeBenchmark implements Callable<Integer> {
+    @Option(names = {"-n", "--packages"}, description = "Packages to fetch keycodes for (default: ${DEFAULT-VALUE}).")
+    private int packageCount = 100;
+
+    @Option(names = {"--credentials"}, description = "Credentials file with a key pair (default: ${DEFAULT-VALUE}).")
+    private File credentials = SendSafelyCLI.defaultCredsFile;
+
+    @Option(names = {"--host"}, description = "SendSafely host (default: ${DEFAULT-VALUE}).")
+    private String host = "https://app.sendsafely.com";
+
+    public static void main(String... args) {
+        System.exit(new CommandLine(new KeycodeBenchmark()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        JsonNode node = new ObjectMapper().readTree(credentials);
+        if (!node.hasNonNull("publicKeyId")) {
+            System.err.println(credentials + " has no key pair; run `ss --keygen` first");
+            return 1;
+        }
+
+        SendSafely api = new SendSafely(host, node.get("apiKey").asText(),
+            node.get("apiKeySecret").asText());
+        List<String> packageIds = api.getActivePackages().stream()
+            .map(PackageReference::getPackageId)
+            .limit(packageCount)
+            .collect(Collectors.toList());
+
+        if (packageIds.isEmpty()) {
+            System.err.println("No active packages to fetch keycodes for");
+            return 1;
+        }
+
+        System.out.println("Fetching keycodes for " + packageIds.size() + " packages from " + host);
+
+        String publicKeyId = node.get("publicKeyId").asText();
+        String armoredKey = node.get("armoredKey").asText();
+
+        // Warm up the connection and the crypto code, so neither run pays for it
+        api.getKeycode(packageIds.get(0), privateKey(publicKeyId, armoredKey));
+
+        long start = System.nanoTime();
+        for (String packageId : packageIds) {
+            api.getKeycode(packageId, privateKey(publicKeyId, armoredKey));
+        }
+        report("Key per lookup", packageIds.size(), System.nanoTime() - start);
+
+        Privatekey shared = privateKey(publicKeyId, armoredKey);
+        start = System.nanoTime();
+        for (String packageId : packageIds) {
+            api.getKeycode(packageId, shared);
+        }
+        report("Shared key", packageIds.size(), System.nanoTime() - start);
+
+        return 0;
+    }
+
+    private static Privatekey privateKey(String publicKeyId, String armoredKey) {
+        Privatekey key = new Privatekey();
+        key.setPublicKeyId(publicKeyId);
+        key.setArmoredKey(armoredKey);
+        return key;
+    }
+
+    private void report(String label, int packages, long elapsedNanos) {
+        System.out.printf("%s: %.0f ms total, %.1f ms per package%n", label, elapsedNanos / 1e6,
+            elapsedNanos / 1e6 / packages);
+    }
+}
@@ -0,0 +1,152 @@
+package com.sendsafely.cliapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Drives concurrent end-to-end CLI sessions (create package, encrypt and upload, add recipient,
+ * finalize) against a StandInServer, or any host given with --host, and reports throughput and
+ * latency percentiles.
+ */
+@Command(
+    name = "ss-load",
+    mixinStandardHelpOptions = true,
+    description = "End-to-end load test for the SendSafely CLI")
+class LoadHarness implements Callable<Integer> {
+    @Option(names = {"-c", "--concurrency"}, description = "Concurrent CLI sessions (default: ${DEFAULT-VALUE}).")
+    private int concurrency = 8;
+
+    @Option(names = {"-n", "--sessions"}, description = "Total CLI sessions to run (default: ${DEFAULT-VALUE}).")
+    private int sessions = 64;
+
+    @Option(names = {"-s", "--file-size"}, description = "Bytes uploaded per session (default: ${DEFAULT-VALUE}).")
+    private long fileSize = 1024 * 1024;
+
+    @Option(names = {"--host"}, description = "Target host. A local stand-in server is started if omitted.")
+    private String host;
+
+    public static void main(String... args) {
+        System.exit(new CommandLine(new LoadHarness()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        Path workDirectory = Files.createTempDirectory("ss-load");
+        StandInServer server = null;
+
+        try {
+            if (host == null) {
+                server = new StandInServer(0, Math.max(8, concurrency * 2));
+                server.start();
+                host = server.getUrl();
+            }
+
+            File payload = createPayload(workDirectory.resolve("payload.bin"));
+            File credentials = workDirectory.resolve("credentials.json").toFile();
+            FileUtils.writeStringToFile(credentials,
+                "{\"apiKey\":\"load-key\",\"apiKeySecret\":\"load-secret\"}", StandardCharsets.UTF_8);
+
+            System.out.println("Running " + sessions + " sessions, " + concurrency
+                + " at a time, against " + host);
+
+            List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger failures = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+            List<Future<?>> results = new ArrayList<>();
+            long start = System.nanoTime();
+
+            for (int i = 0; i < sessions; i++) {
+                results.add(executor.submit(() -> {
+                    long sessionStart = System.nanoTime();
+                    int exitCode = runSession(credentials, payload);
+                    latencies.add(System.nanoTime() - sessionStart);
+                    if (exitCode != 0) {
+                        failures.incrementAndGet();
+                    }
+                }));
+            }
+
+            for (Future<?> result : results) {
+                result.get();
+            }
+            executor.shutdown();
+
+            report(latencies, failures.get(), System.nanoTime() - start);
+            if (server != null) {
+                System.out.println("Server requests: " + server.getRequestCounts());
+            }
+
+            return failures.get() == 0 ? 0 : 1;
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            FileUtils.deleteDirectory(workDirectory.toFile());
+        }
+    }
+
+    private int runSession(File credentials, File payload) {
+        SendSafelyCLI cli = new SendSafelyCLI(new ConsolePromptHelper(),
+            new ErrorReporter(System.err), credentials);
+        cli.setCheckFile(true);
+
+        return new CommandLine(cli).execute("--host", host, "--quiet",
+            "--recipient", "load-recipient@example.com", payload.getAbsolutePath());
+    }
+
+    private File createPayload(Path destination) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        Random random = new Random(42);
+
+        try (OutputStream out = Files.newOutputStream(destination)) {
+            for (long written = 0; written < fileSize; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, fileSize - written));
+            }
+        }
+
+        return destination.toFile();
+    }
+
+    private void report(List<Long> latencies, int failures, long elapsedNanos) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.printf("Sessions: %d (%d failed) in %.2f s%n", sorted.size(), failures, seconds);
+        System.out.printf("Throughput: %.2f sessions/s, %.2f MiB/s%n", sorted.size() / seconds,
+            sorted.size() * fileSize / seconds / (1024 * 1024));
+        System.out.printf("Latency ms: p50 %d, p90 %d, p99 %d, max %d%n",
+            percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+            percentile(sorted, 100));
+    }
+
+    static long percentile(List<Long> sortedNanos, int percentile) {
+        if (sortedNanos.isEmpty()) {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.size()) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sortedNanos.get(Math.max(0, index)));
+    }
+}
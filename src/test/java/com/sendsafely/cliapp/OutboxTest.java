@@ -0,0 +1,181 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutboxTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void onlyCommittedJobsAreListed() throws IOException {
+        Outbox outbox = new Outbox(temp.resolve("outbox").toFile());
+
+        try (Outbox.Draft draft = outbox.draft()) {
+            Files.write(new File(draft.getFilesDirectory(), "b.txt").toPath(), new byte[] {2});
+            Files.write(new File(draft.getFilesDirectory(), "a.txt").toPath(), new byte[] {1});
+            draft.commit(Arrays.asList("someone@example.com"), "hello");
+        }
+
+        try (Outbox.Draft draft = outbox.draft()) {
+            Files.write(new File(draft.getFilesDirectory(), "c.txt").toPath(), new byte[] {3});
+            // Closed without committing, as when copying its files fails
+        }
+
+        List<Outbox.Job> jobs = outbox.jobs(Duration.ofDays(1));
+        assertEquals(1, jobs.size());
+
+        Outbox.Job job = jobs.get(0);
+        assertEquals(Outbox.State.QUEUED, job.getState());
+        assertFalse(job.isResumed());
+        assertEquals(Arrays.asList("someone@example.com"), job.getRecipients());
+        assertEquals("hello", job.getMessage());
+        assertEquals("a.txt", job.getFiles().get(0).getName());
+        assertTrue(job.getFiles().get(1).isFile());
+    }
+
+    @Test
+    void resumesFromTheStateLog() throws IOException {
+        Outbox outbox = new Outbox(temp.toFile());
+        Outbox.Job job;
+
+        try (Outbox.Draft draft = outbox.draft()) {
+            Files.write(new File(draft.getFilesDirectory(), "a.txt").toPath(), new byte[] {1});
+            job = draft.commit(Collections.emptyList(), null);
+        }
+
+        job.recordCreated("package", "keycode", "root");
+        job.recordFileUploaded("a.txt", "file");
+        job.recordRecipientAdded("someone@example.com");
+
+        // A crash while appending leaves a torn last line
+        Files.write(temp.resolve(job.getId()).resolve(Outbox.STATE_LOG),
+            "{\"step\":\"uploa".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Outbox.Job resumed = outbox.jobs(Duration.ofDays(1)).get(0);
+        assertTrue(resumed.isResumed());
+        assertEquals(Outbox.State.CREATED, resumed.getState());
+        assertEquals("package", resumed.getPackageId());
+        assertEquals("keycode", resumed.getKeycode());
+        assertEquals(Collections.singletonMap("a.txt", "file"), resumed.getUploadedFiles());
+        assertEquals(Collections.singleton("someone@example.com"), resumed.getAddedRecipients());
+        assertFalse(resumed.isMessageUploaded());
+        assertNull(resumed.getMessage());
+    }
+
+    @Test
+    void stepsAfterATornLineAreNotLost() throws IOException {
+        Outbox outbox = new Outbox(temp.toFile());
+        Outbox.Job job;
+
+        try (Outbox.Draft draft = outbox.draft()) {
+            Files.write(new File(draft.getFilesDirectory(), "a.txt").toPath(), new byte[] {1});
+            job = draft.commit(Collections.emptyList(), null);
+        }
+
+        // A crash while recording the first package leaves a torn line without a newline
+        Files.write(temp.resolve(job.getId()).resolve(Outbox.STATE_LOG),
+            "{\"step\":\"crea".getBytes(StandardCharsets.UTF_8));
+
+        Outbox.Job resumed = outbox.jobs(Duration.ofDays(1)).get(0);
+        resumed.recordCreated("pkg2", "keycode", "root");
+        resumed.recordFileUploaded("a.txt", "f2");
+
+        Outbox.Job reloaded = outbox.jobs(Duration.ofDays(1)).get(0);
+        assertEquals(Outbox.State.CREATED, reloaded.getState());
+        assertEquals("pkg2", reloaded.getPackageId());
+        assertEquals(Collections.singletonMap("a.txt", "f2"), reloaded.getUploadedFiles());
+    }
+
+    @Test
+    void aNewPackageStartsWithNothingAdded() throws IOException {
+        Outbox outbox = new Outbox(temp.toFile());
+        Outbox.Job job;
+
+        try (Outbox.Draft draft = outbox.draft()) {
+            Files.write(new File(draft.getFilesDirectory(), "a.txt").toPath(), new byte[] {1});
+            job = draft.commit(Collections.emptyList(), "hello");
+        }
+
+        job.recordCreated("pkg1", "keycode1", "root1");
+        job.recordFileUploaded("a.txt", "f1");
+        job.recordRecipientAdded("someone@example.com");
+        job.recordMessageUploaded();
+        job.recordCreated("pkg2", "keycode2", "root2");
+
+        for (Outbox.Job state : Arrays.asList(job, outbox.jobs(Duration.ofDays(1)).get(0))) {
+            assertEquals("pkg2", state.getPackageId());
+            assertTrue(state.getUploadedFiles().isEmpty());
+            assertTrue(state.getAddedRecipients().isEmpty());
+            assertFalse(state.isMessageUploaded());
+        }
+    }
+
+    @Test
+    void completedJobsMoveToTheSentLog() throws IOException {
+        Outbox outbox = new Outbox(temp.toFile());
+        Outbox.Job job;
+
+        try (Outbox.Draft draft = outbox.draft()) {
+            Files.write(new File(draft.getFilesDirectory(), "a.txt").toPath(), new byte[] {1});
+            job = draft.commit(Collections.emptyList(), null);
+        }
+
+        assertThrows(IllegalStateException.class, job::complete);
+
+        job.recordCreated("package", "keycode", "root");
+        job.recordUploaded();
+        job.recordFinalized("https://example.com/link");
+        job.complete();
+
+        assertTrue(outbox.jobs(Duration.ofDays(1)).isEmpty());
+        String sent = new String(Files.readAllBytes(temp.resolve(Outbox.SENT_LOG)),
+            StandardCharsets.UTF_8);
+        assertTrue(sent.contains("https://example.com/link"));
+    }
+
+    @Test
+    void restrictsAnExistingOutboxToItsOwner() throws IOException {
+        Path directory = Files.createDirectories(temp.resolve("outbox"));
+        try {
+            Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxr-xr-x"));
+        } catch (UnsupportedOperationException e) {
+            Assumptions.assumeTrue(false, "POSIX permissions are not available here");
+        }
+
+        new Outbox(directory.toFile()).draft().close();
+
+        assertEquals("rwx------",
+            PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+    }
+
+    @Test
+    void onlyOneDrainAtATime() throws IOException {
+        Outbox outbox = new Outbox(temp.toFile());
+
+        try (FileChannel lock = outbox.lock()) {
+            assertThrows(IOException.class, outbox::lock);
+        }
+
+        outbox.lock().close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PackageManifestTest {
+    // SHA-256 of "hello"
+    private static final String HELLO_SHA256 =
+        "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void roundTripsThroughTheSecureMessage() {
+        PackageManifest manifest = new PackageManifest();
+        manifest.add("report final.pdf", 5, HELLO_SHA256);
+
+        String message = manifest.appendTo("See attached.");
+        PackageManifest parsed = PackageManifest.parse(message);
+
+        assertEquals("See attached.\n\n" + PackageManifest.BEGIN + "\n" + HELLO_SHA256
+            + " 5 report final.pdf\n" + PackageManifest.END + "\n", message);
+        assertEquals(5, parsed.get("report final.pdf").getSize());
+        assertEquals(HELLO_SHA256, parsed.get("report final.pdf").getSha256());
+        assertNull(PackageManifest.parse("Just a message"));
+        assertNull(PackageManifest.parse(null));
+    }
+
+    @Test
+    void verifiesDownloadedFiles() throws IOException {
+        File file = temp.resolve("hello.txt").toFile();
+        Files.write(file.toPath(), "hello".getBytes(StandardCharsets.UTF_8));
+
+        PackageManifest manifest = new PackageManifest();
+        manifest.add("hello.txt", 5, HELLO_SHA256);
+        manifest.verify("hello.txt", file);
+
+        assertThrows(IOException.class, () -> manifest.verify("other.txt", file));
+
+        Files.write(file.toPath(), "jello".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> manifest.verify("hello.txt", file));
+    }
+
+    @Test
+    void digestsWhatTheUploadReads() throws IOException {
+        byte[] data = new byte[300_000];
+        new Random(3).nextBytes(data);
+        File file = temp.resolve("data.bin").toFile();
+        Files.write(file.toPath(), data);
+
+        DigestingFileManager fileManager = new DigestingFileManager(file);
+
+        // A partly read attempt, then a retry that reads everything
+        try (InputStream in = fileManager.getInputStream()) {
+            assertFalse(in.markSupported());
+            in.read(new byte[1000]);
+        }
+        try (InputStream in = fileManager.getInputStream()) {
+            in.skip(10);
+            IOUtils.copy(in, new ByteArrayOutputStream());
+        }
+
+        assertEquals(PackageManifest.sha256(file), fileManager.sha256());
+    }
+}
@@ -0,0 +1,99 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+import com.sendsafely.Package;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class PackageMemoTest {
+    private final ErrorReporter reporter = new ErrorReporter(new PrintStream(new ByteArrayOutputStream()));
+    private final PackageMemo memo = new PackageMemo(reporter);
+
+    @Test
+    void loadsEachPackageOnce() {
+        Package p = mock(Package.class);
+        AtomicInteger loads = new AtomicInteger();
+
+        Supplier<CompletableFuture<Package>> loader = () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture(p);
+        };
+
+        assertSame(p, memo.getPackage("pkg", loader).join());
+        assertSame(p, memo.getPackage("pkg", loader).join());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void loadsKeycodesOnceAndRedactsThem() {
+        AtomicInteger loads = new AtomicInteger();
+
+        Supplier<CompletableFuture<String>> loader = () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("keycode-abc");
+        };
+
+        assertEquals("keycode-abc", memo.getKeycode("pkg", loader).join());
+        assertEquals("keycode-abc", memo.getKeycode("pkg", loader).join());
+        assertEquals(1, loads.get());
+        assertFalse(reporter.sanitize("failed with keycode-abc").contains("keycode-abc"));
+    }
+
+    @Test
+    void forgottenPackagesAreLoadedAgain() {
+        AtomicInteger loads = new AtomicInteger();
+
+        Supplier<CompletableFuture<String>> loader =
+            () -> CompletableFuture.completedFuture("keycode-" + loads.incrementAndGet());
+
+        assertEquals("keycode-1", memo.getKeycode("pkg", loader).join());
+        memo.forget("pkg");
+        assertEquals("keycode-2", memo.getKeycode("pkg", loader).join());
+        memo.clear();
+        assertEquals("keycode-3", memo.getKeycode("pkg", loader).join());
+    }
+
+    @Test
+    void failedLoadsAreNotRemembered() {
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("offline"));
+
+        assertThrows(IOException.class,
+            () -> AsyncSendSafely.<String, IOException>join(memo.getKeycode("pkg", () -> failed)));
+
+        assertEquals("keycode",
+            memo.getKeycode("pkg", () -> CompletableFuture.completedFuture("keycode")).join());
+    }
+
+    @Test
+    void lookupsWhileLoadingShareOneLoad() {
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> loading = new CompletableFuture<>();
+
+        Supplier<CompletableFuture<String>> loader = () -> {
+            loads.incrementAndGet();
+            return loading;
+        };
+
+        CompletableFuture<String> first = memo.getKeycode("pkg", loader);
+        CompletableFuture<String> second = memo.getKeycode("pkg", loader);
+        assertFalse(first.isDone());
+
+        loading.complete("keycode");
+
+        assertEquals("keycode", first.join());
+        assertEquals("keycode", second.join());
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+    }
+}
@@ -0,0 +1,94 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zeroturnaround.zip.ZipUtil;
+
+class ParallelUnzipperTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void extractsEveryEntryWithPermissions() throws IOException {
+        Path source = Files.createDirectories(temp.resolve("source"));
+        byte[] data = new byte[200_000];
+        new Random(5).nextBytes(data);
+
+        Files.createDirectories(source.resolve("bin/nested"));
+        Files.createDirectories(source.resolve("empty"));
+        Files.write(source.resolve("data.bin"), data);
+        Files.write(source.resolve("bin/run.sh"), "#!/bin/sh\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(source.resolve("bin/nested/notes.txt"), "notes".getBytes(StandardCharsets.UTF_8));
+        boolean posix = isPosix(source);
+        if (posix) {
+            Files.setPosixFilePermissions(source.resolve("bin/run.sh"),
+                PosixFilePermissions.fromString("rwxr-x---"));
+        }
+
+        File zip = temp.resolve("source.zip").toFile();
+        new ParallelZipWriter(2, 6).pack(source.toFile(), zip);
+
+        Path target = temp.resolve("target");
+        new ParallelUnzipper(4).unpack(zip, target.toFile());
+
+        assertArrayEquals(data, Files.readAllBytes(target.resolve("data.bin")));
+        assertEquals("notes", new String(Files.readAllBytes(target.resolve("bin/nested/notes.txt")),
+            StandardCharsets.UTF_8));
+        assertTrue(Files.isDirectory(target.resolve("empty")));
+        if (posix) {
+            assertEquals("rwxr-x---", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(target.resolve("bin/run.sh"))));
+        }
+    }
+
+    @Test
+    void extractsZipsFromOtherWriters() throws IOException {
+        Path source = Files.createDirectories(temp.resolve("source/a"));
+        Files.write(source.resolve("b.txt"), "b".getBytes(StandardCharsets.UTF_8));
+
+        File zip = temp.resolve("source.zip").toFile();
+        ZipUtil.pack(temp.resolve("source").toFile(), zip);
+
+        Path target = temp.resolve("target");
+        new ParallelUnzipper(2).unpack(zip, target.toFile());
+
+        assertEquals("b", new String(Files.readAllBytes(target.resolve("a/b.txt")),
+            StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void refusesEntriesOutsideTheTarget() throws IOException {
+        File zip = temp.resolve("evil.zip").toFile();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            out.putNextEntry(new ZipEntry("fine.txt"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("../evil.txt"));
+            out.write("evil".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        Path target = temp.resolve("target");
+        assertThrows(IOException.class, () -> new ParallelUnzipper(2).unpack(zip, target.toFile()));
+        assertFalse(Files.exists(temp.resolve("evil.txt")));
+        assertFalse(Files.exists(target.resolve("fine.txt")));
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+}
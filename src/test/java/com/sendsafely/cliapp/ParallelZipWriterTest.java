@@ -0,0 +1,139 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zeroturnaround.zip.ZipUtil;
+
+class ParallelZipWriterTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void combinesCrcsOfJoinedBlocks() {
+        byte[] data = new byte[10_000];
+        new Random(1).nextBytes(data);
+
+        assertEquals(crc(data, 0, data.length), ParallelZipWriter.crc32Combine(
+            crc(data, 0, 3_333), crc(data, 3_333, data.length - 3_333), data.length - 3_333));
+    }
+
+    @Test
+    void writesAZipThatStandardReadersOpen() throws IOException {
+        Path source = Files.createDirectories(temp.resolve("source"));
+        byte[] large = new byte[300_000];
+        Random random = new Random(7);
+        for (int i = 0; i < large.length; i++) {
+            // Half random, half repetitive, so both expanding and shrinking blocks are covered
+            large[i] = i < large.length / 2 ? (byte) random.nextInt() : (byte) (i % 7);
+        }
+
+        Files.write(source.resolve("large.bin"), large);
+        Files.write(source.resolve("empty.txt"), new byte[0]);
+        Files.createDirectories(source.resolve("nested/deeper"));
+        Files.write(source.resolve("nested/deeper/notes.txt"), "hello".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(source.resolve("empty-dir"));
+
+        File zip = temp.resolve("out.zip").toFile();
+        ParallelZipWriter writer = new ParallelZipWriter(4, -1);
+        writer.setBlockSize(64 * 1024);
+
+        assertEquals(large.length + 5, writer.pack(source.toFile(), zip));
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertArrayEquals(large, read(zipFile, "large.bin"));
+            assertArrayEquals(new byte[0], read(zipFile, "empty.txt"));
+            assertEquals("hello", new String(read(zipFile, "nested/deeper/notes.txt"),
+                StandardCharsets.UTF_8));
+            assertTrue(zipFile.getEntry("empty-dir/").isDirectory());
+        }
+
+        File unpacked = temp.resolve("unpacked").toFile();
+        ZipUtil.unpack(zip, unpacked);
+        assertArrayEquals(large, Files.readAllBytes(unpacked.toPath().resolve("large.bin")));
+    }
+
+    @Test
+    void skipsSymbolicLinksBackToADirectoryBeingZipped() throws IOException {
+        Path source = Files.createDirectories(temp.resolve("source"));
+        Files.createDirectories(source.resolve("nested"));
+        Files.write(source.resolve("nested/notes.txt"), "hello".getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.createSymbolicLink(source.resolve("nested/loop"), source);
+        } catch (UnsupportedOperationException | IOException e) {
+            Assumptions.assumeTrue(false, "Symbolic links are not supported here");
+        }
+
+        File zip = temp.resolve("out.zip").toFile();
+        assertTrue(ParallelZipWriter.estimateSize(source.toFile()) > 5);
+        assertEquals(5, new ParallelZipWriter(2, -1).pack(source.toFile(), zip));
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals("hello", new String(read(zipFile, "nested/notes.txt"),
+                StandardCharsets.UTF_8));
+            assertNull(zipFile.getEntry("nested/loop/"));
+        }
+    }
+
+    @Test
+    void storesEntriesThatWouldNotShrink() throws IOException {
+        Path source = Files.createDirectories(temp.resolve("source"));
+        byte[] random = new byte[100_000];
+        new Random(3).nextBytes(random);
+        byte[] text = new byte[100_000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + i % 26);
+        }
+
+        Files.write(source.resolve("random.bin"), random);
+        Files.write(source.resolve("text.txt"), text);
+        Files.write(source.resolve("photo.JPG"), text);
+
+        File zip = temp.resolve("out.zip").toFile();
+        new ParallelZipWriter(2, 6).pack(source.toFile(), zip);
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("random.bin").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("text.txt").getMethod());
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("photo.JPG").getMethod());
+            assertArrayEquals(random, read(zipFile, "random.bin"));
+            assertArrayEquals(text, read(zipFile, "photo.JPG"));
+        }
+
+        new ParallelZipWriter(2, 0).pack(source.toFile(), zip);
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("text.txt").getMethod());
+            assertArrayEquals(text, read(zipFile, "text.txt"));
+        }
+    }
+
+    private static byte[] read(ZipFile zipFile, String name) throws IOException {
+        ZipEntry entry = zipFile.getEntry(name);
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static long crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,64 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+class PhaseRecorderTest {
+    private final ErrorReporter reporter = new ErrorReporter(new PrintStream(new ByteArrayOutputStream()));
+    private final PhaseRecorder recorder = new PhaseRecorder(reporter);
+
+    @Test
+    void phasesAreASharedNoOpUntilRecording() {
+        PhaseRecorder.Phase first = recorder.begin("upload", "pkg-123", "a.txt");
+        PhaseRecorder.Phase second = recorder.begin("download", null, null);
+
+        assertSame(first, second);
+        first.setBytes(42);
+        first.close();
+        // Stopping without a recording does nothing
+        recorder.stopRecording();
+    }
+
+    @Test
+    void hashesPackageIds() {
+        assertEquals("d938fcceb0422597", PhaseRecorder.hashPackageId("pkg-123"));
+        assertNotEquals(PhaseRecorder.hashPackageId("pkg-123"), PhaseRecorder.hashPackageId("pkg-124"));
+        assertNull(PhaseRecorder.hashPackageId(null));
+    }
+
+    @Test
+    void recordsPhasesWithTheHashedPackageIdAndSanitizedFileName() throws Exception {
+        Path destination = Files.createTempFile("phases", ".jfr");
+        reporter.addSecret("keycode-abc");
+
+        recorder.startRecording(destination.toFile());
+        try (PhaseRecorder.Phase phase = recorder.begin("upload", "pkg-123", "keycode-abc.txt")) {
+            phase.setBytes(42);
+        }
+        recorder.stopRecording();
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(destination).stream()
+            .filter(event -> event.getEventType().getName().equals("com.sendsafely.cliapp.Phase"))
+            .collect(Collectors.toList());
+        Files.delete(destination);
+
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("upload", event.getString("phase"));
+        assertEquals("d938fcceb0422597", event.getString("packageIdHash"));
+        assertEquals("[REDACTED].txt", event.getString("fileName"));
+        assertEquals(42, event.getLong("bytes"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class PrefetcherTest {
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger prepared = new AtomicInteger();
+
+    @Test
+    void preparesInOrderNoMoreThanTheDepthAhead() throws Exception {
+        List<Integer> items = Arrays.asList(1, 2, 3, 4);
+
+        try (Prefetcher<Integer, Item> prefetcher = new Prefetcher<>("test", 2, items, Item::new)) {
+            waitForPrepared(2);
+            Thread.sleep(100);
+            assertEquals(2, prepared.get());
+
+            for (int expected : items) {
+                try (Item item = prefetcher.next()) {
+                    assertEquals(expected, item.value);
+                }
+            }
+            assertNull(prefetcher.next());
+        }
+
+        assertEquals(0, open.get());
+    }
+
+    @Test
+    void handsOverTheFirstFailureAndStops() throws Exception {
+        IOException failure = new IOException("zip failed");
+
+        try (Prefetcher<Integer, Item> prefetcher = new Prefetcher<>("test", 3,
+            Arrays.asList(1, 2, 3), value -> {
+                if (value == 2) {
+                    throw failure;
+                }
+                return new Item(value);
+            })) {
+            prefetcher.next().close();
+            assertSame(failure, assertThrows(IOException.class, prefetcher::next));
+            assertNull(prefetcher.next());
+        }
+
+        assertEquals(1, prepared.get());
+        assertEquals(0, open.get());
+    }
+
+    @Test
+    void closingClosesWhatWasNotTaken() throws Exception {
+        try (Prefetcher<Integer, Item> prefetcher =
+            new Prefetcher<>("test", 2, Arrays.asList(1, 2, 3), Item::new)) {
+            waitForPrepared(2);
+            assertTrue(open.get() > 0);
+        }
+
+        assertEquals(0, open.get());
+    }
+
+    private void waitForPrepared(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (prepared.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private class Item implements AutoCloseable {
+        final int value;
+
+        Item(int value) {
+            this.value = value;
+            open.incrementAndGet();
+            prepared.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            open.decrementAndGet();
+        }
+    }
+}
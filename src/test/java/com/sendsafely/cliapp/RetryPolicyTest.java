@@ -0,0 +1,75 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sendsafely.exceptions.DownloadFileException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RetryPolicyTest {
+    @Test
+    void retriesTransientFailuresUntilSuccess() throws IOException {
+        RetryPolicy policy = new RetryPolicy(3, 1, 1, 0, 1000);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger notified = new AtomicInteger();
+        policy.setListener((operation, attempt, delay, error) -> notified.incrementAndGet());
+
+        String result = policy.call("fetch", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, notified.get());
+        assertEquals(2, policy.getRetryCounts().get("fetch"));
+    }
+
+    @Test
+    void doesNotRetryPermanentFailures() {
+        RetryPolicy policy = new RetryPolicy(5, 1, 1, 0, 1000);
+        AtomicInteger attempts = new AtomicInteger();
+        DownloadFileException failure = new DownloadFileException();
+
+        DownloadFileException thrown = assertThrows(DownloadFileException.class,
+            () -> policy.call("download", () -> {
+                attempts.incrementAndGet();
+                throw failure;
+            }));
+
+        assertSame(failure, thrown);
+        assertEquals(1, attempts.get());
+        assertEquals(0, policy.getTotalRetries());
+    }
+
+    @Test
+    void stopsRetryingWhenBudgetIsSpent() {
+        RetryPolicy policy = new RetryPolicy(10, 40, 40, 0, 100);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IOException.class, () -> policy.call("upload", () -> {
+            attempts.incrementAndGet();
+            throw new IOException("Server returned HTTP response code: 503");
+        }));
+
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void classifiesTransientFailuresByCauseChain() {
+        assertTrue(RetryPolicy.isTransient(
+            new RuntimeException("wrapped", new java.net.ConnectException("refused"))));
+        assertTrue(RetryPolicy.isTransient(new RuntimeException("HTTP 502 Bad Gateway")));
+        assertFalse(RetryPolicy.isTransient(new FileNotFoundException("missing")));
+        assertFalse(RetryPolicy.isTransient(new IllegalArgumentException("bad input")));
+    }
+}
@@ -1,10 +1,16 @@
 package com.sendsafely.cliapp;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.sendsafely.Package;
 import com.sendsafely.Privatekey;
+import com.sendsafely.Recipient;
 import com.sendsafely.SendSafely;
+import com.sendsafely.dto.PackageReference;
+import com.sendsafely.dto.PackageURL;
 import com.sendsafely.dto.UserInformation;
+import com.sendsafely.enums.PackageState;
 import com.sendsafely.exceptions.*;
 import com.sendsafely.file.FileManager;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,15 +20,22 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import picocli.CommandLine;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -485,6 +498,462 @@ public class SendSafelyCLITest {
     verify(sendSafelyCLI, times(2)).deleteFile(any(), any());
   }
 
+  @Test
+  @DisplayName("sendPackage | should spool stdin under the --name file name and remove the spool")
+  void sendPackage_shouldSpoolStdinUnderTheNameFileNameAndRemoveTheSpool() throws Exception {
+    loginWithKeyPair(new ByteArrayOutputStream());
+    when(sendSafely.createPackage()).thenReturn(mock(Package.class));
+    when(sendSafely.finalizePackage(any(), any())).thenReturn(mock(PackageURL.class));
+
+    Path[] spooled = new Path[1];
+    doAnswer(invocation -> {
+      File file = invocation.getArgument(0);
+      spooled[0] = file.toPath();
+      assertEquals("dump.sql.gz", file.getName());
+      assertEquals("database dump", new String(Files.readAllBytes(spooled[0]), StandardCharsets.UTF_8));
+      return mock(FileManager.class);
+    }).when(sendSafelyCLI).createFileManager(any());
+
+    new CommandLine(sendSafelyCLI).parseArgs("-r", "someone@example.com", "--name", "dump.sql.gz", "-");
+
+    InputStream originalIn = System.in;
+    try {
+      System.setIn(new ByteArrayInputStream("database dump".getBytes(StandardCharsets.UTF_8)));
+      assertEquals(0, sendSafelyCLI.call());
+    } finally {
+      System.setIn(originalIn);
+    }
+
+    assertNotNull(spooled[0]);
+    verify(sendSafely, times(1)).encryptAndUploadFile(any(), any(), any(), any());
+    assertFalse(Files.exists(spooled[0]));
+  }
+
+  @Test
+  @DisplayName("start | should upload a file chosen from the menu once configured like main")
+  void start_shouldUploadAFileChosenFromTheMenuOnceConfiguredLikeMain() throws Exception {
+    when(consolePromptHelper.promptForPrivateString("Enter api key:")).thenReturn("smelly key");
+    when(consolePromptHelper.promptForPrivateString("Enter api secret (shhhhhh):")).thenReturn("stinky secret");
+
+    doReturn(sendSafely).when(sendSafelyCLI).getSendSafelyAPIForKeyAndSecret("smelly key", "stinky secret");
+    doNothing().when(sendSafelyCLI).quit();
+    doReturn(mock(FileManager.class)).when(sendSafelyCLI).createFileManager(any());
+
+    when(sendSafely.getUserInformation()).thenReturn(mock(UserInformation.class));
+    when(sendSafely.createPackage()).thenReturn(mock(Package.class));
+
+    File file = Files.createTempFile("sendsafely-upload", ".txt").toFile();
+    file.deleteOnExit();
+    when(consolePromptHelper.promptForFile(any())).thenReturn(file);
+
+    when(consolePromptHelper.promptForAction(any(), any()))
+      .thenReturn(ActionType.LOGIN)
+      .thenReturn(ActionType.CREATE_PACKAGE)
+      .thenReturn(ActionType.UPLOAD_FILE)
+      .thenReturn(ActionType.QUIT);
+
+    sendSafelyCLI.configure();
+    sendSafelyCLI.start();
+
+    verify(sendSafely, times(1)).encryptAndUploadFile(any(), any(), any(), any());
+  }
+
+  @Test
+  @DisplayName("start | should add recipients through the configured concurrency limit")
+  void start_shouldAddRecipientsThroughTheConfiguredConcurrencyLimit() throws Exception {
+    when(consolePromptHelper.promptForPrivateString("Enter api key:")).thenReturn("smelly key");
+    when(consolePromptHelper.promptForPrivateString("Enter api secret (shhhhhh):")).thenReturn("stinky secret");
+
+    doReturn(sendSafely).when(sendSafelyCLI).getSendSafelyAPIForKeyAndSecret("smelly key", "stinky secret");
+    doNothing().when(sendSafelyCLI).quit();
+
+    UserInformation userInformation = mock(UserInformation.class);
+    when(userInformation.getEmail()).thenReturn("me@example.com");
+    when(sendSafely.getUserInformation()).thenReturn(userInformation);
+    when(sendSafely.createPackage()).thenReturn(mock(Package.class));
+
+    int[] inFlight = new int[1];
+    when(sendSafely.addRecipient(any(), eq("me@example.com"))).thenAnswer(invocation -> {
+      inFlight[0] = sendSafelyCLI.getConcurrencyLimiter().getInFlight();
+      return mock(Recipient.class);
+    });
+
+    when(consolePromptHelper.promptForAction(any(), any()))
+      .thenReturn(ActionType.LOGIN)
+      .thenReturn(ActionType.CREATE_PACKAGE)
+      .thenReturn(ActionType.ADD_YOURSELF_AS_RECIPIENT)
+      .thenReturn(ActionType.QUIT);
+
+    new CommandLine(sendSafelyCLI).parseArgs("--max-concurrency", "2");
+    sendSafelyCLI.configure();
+    sendSafelyCLI.start();
+
+    assertEquals(2, sendSafelyCLI.getConcurrencyLimiter().getLimit());
+    assertEquals(1, inFlight[0]);
+  }
+
+  @Test
+  @DisplayName("sendPackage | should not prompt for credentials while uploading stdin")
+  void sendPackage_shouldNotPromptForCredentialsWhileUploadingStdin() throws Exception {
+    new CommandLine(sendSafelyCLI).parseArgs("-r", "someone@example.com", "--name", "dump.sql.gz", "-");
+
+    IllegalArgumentException error = assertThrows(IllegalArgumentException.class, sendSafelyCLI::call);
+
+    assertTrue(error.getMessage().contains("Uploading '-'"));
+    verify(sendSafelyCLI, never()).attemptLogin();
+    verifyNoInteractions(consolePromptHelper);
+  }
+
+  @Test
+  void uploadStopsRetryingWhenThePartialFileCannotBeDiscarded() throws Exception {
+    sendSafelyCLI.setSendSafelyAPI(sendSafely);
+    doReturn(true).when(sendSafelyCLI).attemptLogin();
+    when(sendSafely.createPackage()).thenReturn(mock(Package.class));
+    doReturn(mock(FileManager.class)).when(sendSafelyCLI).createFileManager(any());
+
+    when(sendSafely.encryptAndUploadFile(any(), any(), any(), any())).thenAnswer(invocation -> {
+      FileProgressBar progress = invocation.getArgument(3);
+      progress.gotFileId("partial-file");
+      throw new UploadFileException("Connection reset");
+    });
+    doThrow(new FileOperationFailedException("Permission denied"))
+      .when(sendSafely).deleteFile(any(), any(), eq("partial-file"));
+
+    File file = Files.createTempFile("sendsafely-upload", ".txt").toFile();
+    file.deleteOnExit();
+
+    new CommandLine(sendSafelyCLI).parseArgs("-r", "someone@example.com", file.toString());
+
+    assertEquals(1, sendSafelyCLI.call());
+
+    verify(sendSafely, times(1)).encryptAndUploadFile(any(), any(), any(), any());
+    verify(sendSafely, times(1)).deleteFile(any(), any(), eq("partial-file"));
+  }
+
+  @Test
+  void watchRejectsAResultsLogInsideTheWatchedDirectory() throws Exception {
+    Path watched = Files.createTempDirectory("sendsafely-watch");
+
+    new CommandLine(sendSafelyCLI).parseArgs("--watch", watched.toString(),
+      "--results-log", watched.resolve("results.log").toString());
+
+    IllegalArgumentException error = assertThrows(IllegalArgumentException.class, sendSafelyCLI::call);
+
+    assertTrue(error.getMessage().contains("--results-log"));
+    verify(sendSafelyCLI, never()).attemptLogin();
+  }
+
+  @Test
+  @DisplayName("watch | should delete the package of a batch that fails to send")
+  void watch_shouldDeleteThePackageOfABatchThatFailsToSend() throws Exception {
+    Path watched = Files.createTempDirectory("sendsafely-watch");
+    Files.write(watched.resolve("a.txt"), new byte[] {1});
+    Path results = Files.createTempDirectory("sendsafely-results").resolve("results.log");
+
+    sendSafelyCLI.setSendSafelyAPI(sendSafely);
+    doReturn(true).when(sendSafelyCLI).attemptLogin();
+    doReturn(mock(FileManager.class)).when(sendSafelyCLI).createFileManager(any());
+
+    Package pkg = mock(Package.class);
+    when(pkg.getPackageId()).thenReturn("pkg");
+    when(sendSafely.createPackage()).thenReturn(pkg);
+    when(sendSafely.encryptAndUploadFile(any(), any(), any(), any()))
+      .thenThrow(new UploadFileException("Access denied"));
+
+    new CommandLine(sendSafelyCLI).parseArgs("--watch", watched.toString(),
+      "--results-log", results.toString(), "--settle-seconds", "0", "--retry-attempts", "1",
+      "-r", "someone@example.com");
+
+    Thread watching = new Thread(() -> {
+      try {
+        sendSafelyCLI.call();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    watching.start();
+    try {
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (!Files.exists(results) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+    } finally {
+      watching.interrupt();
+      watching.join(10_000);
+    }
+
+    assertTrue(new String(Files.readAllBytes(results), StandardCharsets.UTF_8).contains("\"error\""));
+    verify(sendSafely, times(1)).deletePackage("pkg");
+
+    // The failed batch's undo entries are gone with it
+    sendSafelyCLI.undoPreviousAction();
+    verify(sendSafely, times(1)).deletePackage("pkg");
+  }
+
+  @Test
+  @DisplayName("drainOutbox | should not retry creating a package")
+  void drainOutbox_shouldNotRetryCreatingAPackage() throws Exception {
+    Path outbox = queueOutboxJob();
+    sendSafelyCLI.setSendSafelyAPI(sendSafely);
+    doReturn(true).when(sendSafelyCLI).attemptLogin();
+
+    // The package may have been created before the response was lost
+    when(sendSafely.createPackage()).thenThrow(new CreatePackageFailedException("Gateway timeout"));
+
+    new CommandLine(sendSafelyCLI).parseArgs("--drain", "--outbox", outbox.toString(),
+      "--retry-backoff", "0");
+
+    assertEquals(1, sendSafelyCLI.call());
+    verify(sendSafely, times(1)).createPackage();
+  }
+
+  @Test
+  @DisplayName("drainOutbox | should check the package state before retrying finalize")
+  void drainOutbox_shouldCheckThePackageStateBeforeRetryingFinalize() throws Exception {
+    Path outbox = queueOutboxJob();
+    sendSafelyCLI.setSendSafelyAPI(sendSafely);
+    doReturn(true).when(sendSafelyCLI).attemptLogin();
+
+    Package pkg = mock(Package.class);
+    when(pkg.getPackageId()).thenReturn("pkg");
+    when(pkg.getState()).thenReturn(PackageState.PACKAGE_STATE_FINALIZED);
+    when(sendSafely.createPackage()).thenReturn(pkg);
+    when(sendSafely.encryptAndUploadFile(any(), any(), any(), any()))
+      .thenReturn(mock(com.sendsafely.File.class));
+    when(sendSafely.finalizePackage(eq("pkg"), any()))
+      .thenThrow(new FinalizePackageFailedException("Gateway timeout"));
+    when(sendSafely.getPackageInformation("pkg")).thenReturn(pkg);
+    when(sendSafely.getPackageLink(eq("pkg"), any())).thenReturn("https://example.com/link");
+
+    new CommandLine(sendSafelyCLI).parseArgs("--drain", "--outbox", outbox.toString(),
+      "--retry-backoff", "0");
+
+    assertEquals(0, sendSafelyCLI.call());
+    verify(sendSafely, times(1)).finalizePackage(any(), any());
+    assertTrue(new String(Files.readAllBytes(outbox.resolve(Outbox.SENT_LOG)), StandardCharsets.UTF_8)
+      .contains("https://example.com/link"));
+  }
+
+  private Path queueOutboxJob() throws IOException {
+    Path directory = Files.createTempDirectory("sendsafely-outbox");
+    try (Outbox.Draft draft = new Outbox(directory.toFile()).draft()) {
+      Files.write(new File(draft.getFilesDirectory(), "a.txt").toPath(), new byte[] {1});
+      draft.commit(Collections.singletonList("someone@example.com"), null);
+    }
+    return directory;
+  }
+
+  @Test
+  @DisplayName("listPackages | should write each package as one JSON event per line")
+  void listPackages_shouldWriteEachPackageAsOneJsonEventPerLine() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    sendSafelyCLI = spy(new SendSafelyCLI(consolePromptHelper, new ErrorReporter(new PrintStream(err))));
+    sendSafelyCLI.setSendSafelyAPI(sendSafely);
+    doReturn(true).when(sendSafelyCLI).attemptLogin();
+
+    List<PackageReference> references = new ArrayList<>();
+    for (String packageId : Arrays.asList("first", "second")) {
+      PackageReference reference = mock(PackageReference.class);
+      when(reference.getPackageId()).thenReturn(packageId);
+      references.add(reference);
+
+      Package pkg = mock(Package.class);
+      when(pkg.getPackageId()).thenReturn(packageId);
+      when(pkg.getState()).thenReturn(PackageState.PACKAGE_STATE_FINALIZED);
+      when(pkg.getFiles()).thenReturn(Collections.emptyList());
+      when(sendSafely.getPackageInformation(packageId)).thenReturn(pkg);
+    }
+    when(sendSafely.getActivePackages()).thenReturn(references);
+
+    assertEquals(0, callWithOutput(out, err, "--list", "--output", "ndjson"));
+
+    List<JsonNode> events = jsonLines(out);
+    assertEquals(2, events.size());
+    assertEquals("package", events.get(0).path("type").asText());
+    assertEquals("first", events.get(0).path("packageId").asText());
+    assertEquals("second", events.get(1).path("packageId").asText());
+    assertEquals("finalized", events.get(1).path("state").asText());
+  }
+
+  @Test
+  @DisplayName("sendPackage | should write the finalized event as JSON and log to stderr")
+  void sendPackage_shouldWriteTheFinalizedEventAsJsonAndLogToStderr() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    sendSafelyCLI = spy(new SendSafelyCLI(consolePromptHelper, new ErrorReporter(new PrintStream(err))));
+    sendSafelyCLI.setSendSafelyAPI(sendSafely);
+    doReturn(true).when(sendSafelyCLI).attemptLogin();
+    doReturn(mock(FileManager.class)).when(sendSafelyCLI).createFileManager(any());
+
+    Package pkg = mock(Package.class);
+    when(pkg.getPackageId()).thenReturn("pkg");
+    when(sendSafely.createPackage()).thenReturn(pkg);
+    when(sendSafely.encryptAndUploadFile(any(), any(), any(), any()))
+      .thenReturn(mock(com.sendsafely.File.class));
+    PackageURL packageURL = mock(PackageURL.class);
+    when(packageURL.getSecureLink()).thenReturn("https://example.com/link");
+    when(sendSafely.finalizePackage(eq("pkg"), any())).thenReturn(packageURL);
+
+    File file = Files.createTempFile("sendsafely-upload", ".txt").toFile();
+    file.deleteOnExit();
+
+    assertEquals(0, callWithOutput(out, err,
+      "--output", "ndjson", "-r", "someone@example.com", file.toString()));
+
+    List<JsonNode> events = jsonLines(out);
+    assertEquals("file", events.get(0).path("type").asText());
+    assertEquals("uploaded", events.get(0).path("event").asText());
+
+    JsonNode finalized = events.get(events.size() - 1);
+    assertEquals("package", finalized.path("type").asText());
+    assertEquals("finalized", finalized.path("event").asText());
+    assertEquals("https://example.com/link", finalized.path("secureLink").asText());
+
+    String log = new String(err.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(log.contains("Successfully added recipient 'someone@example.com'"));
+  }
+
+  @Test
+  @DisplayName("sendPackage | should keep stdout to JSON events when an upload fails")
+  void sendPackage_shouldKeepStdoutToJsonEventsWhenAnUploadFails() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    sendSafelyCLI = spy(new SendSafelyCLI(consolePromptHelper, new ErrorReporter(new PrintStream(err))));
+    sendSafelyCLI.setSendSafelyAPI(sendSafely);
+    doReturn(true).when(sendSafelyCLI).attemptLogin();
+    doReturn(mock(FileManager.class)).when(sendSafelyCLI).createFileManager(any());
+
+    when(sendSafely.createPackage()).thenReturn(mock(Package.class));
+    when(sendSafely.encryptAndUploadFile(any(), any(), any(), any()))
+      .thenThrow(new UploadFileException("Connection reset"));
+
+    File file = Files.createTempFile("sendsafely-upload", ".txt").toFile();
+    file.deleteOnExit();
+
+    assertEquals(1, callWithOutput(out, err, "--output", "ndjson", "--retry-attempts", "2",
+      "--retry-backoff", "0", "-r", "someone@example.com", file.toString()));
+
+    List<JsonNode> events = jsonLines(out);
+    assertEquals(1, events.size());
+    assertEquals("retry", events.get(0).path("type").asText());
+    assertTrue(events.get(0).path("error").asText().contains("Connection reset"));
+
+    String log = new String(err.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(log.contains("Failed to upload file"));
+  }
+
+  @Test
+  @DisplayName("downloadToStdout | should write only the file's contents to stdout")
+  void downloadToStdout_shouldWriteOnlyTheFilesContentsToStdout() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    loginWithKeyPair(err);
+
+    com.sendsafely.File report = mock(com.sendsafely.File.class);
+    when(report.getFileId()).thenReturn("file-1");
+    when(report.getFileName()).thenReturn("report.txt");
+    listPackageWithFiles(report);
+    when(sendSafely.getKeycode(eq("pkg"), any())).thenReturn("keycode");
+
+    Path decrypted = Files.createTempFile("sendsafely-download", ".tmp");
+    Files.write(decrypted, "file contents".getBytes(StandardCharsets.UTF_8));
+    when(sendSafely.downloadFile(eq("pkg"), eq("file-1"), eq("keycode"), any()))
+      .thenReturn(decrypted.toFile());
+
+    assertEquals(0, callWithOutput(out, err, "-d", "@0", "--stdout"));
+
+    assertEquals("file contents", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    assertFalse(Files.exists(decrypted));
+    String log = new String(err.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(log.contains("Successfully logged in!"));
+    assertTrue(log.contains("Wrote report.txt to stdout"));
+  }
+
+  @Test
+  @DisplayName("downloadToStdout | should reject a package with several files")
+  void downloadToStdout_shouldRejectAPackageWithSeveralFiles() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    loginWithKeyPair(err);
+
+    com.sendsafely.File first = mock(com.sendsafely.File.class);
+    when(first.getFileName()).thenReturn("a.txt");
+    com.sendsafely.File second = mock(com.sendsafely.File.class);
+    when(second.getFileName()).thenReturn("b.txt");
+    listPackageWithFiles(first, second);
+    when(sendSafely.getKeycode(eq("pkg"), any())).thenReturn("keycode");
+
+    IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+      () -> callWithOutput(out, err, "-d", "@0", "--stdout"));
+
+    assertTrue(error.getMessage().contains("--stdout needs exactly one file"));
+    assertEquals(0, out.size());
+    verify(sendSafely, never()).downloadFile(any(), any(), any(), any());
+  }
+
+  /**
+   * Log in from a credentials file with a key pair, as `ss` does, so keycodes can be fetched.
+   */
+  private void loginWithKeyPair(ByteArrayOutputStream err) throws Exception {
+    Path credentials = Files.createTempDirectory("sendsafely-creds").resolve("credentials.json");
+    Files.write(credentials, ("{\"apiKey\":\"api-key\",\"apiKeySecret\":\"api-secret\","
+      + "\"publicKeyId\":\"public-key-id\",\"armoredKey\":\"private-key\"}")
+      .getBytes(StandardCharsets.UTF_8));
+
+    sendSafelyCLI = spy(new SendSafelyCLI(consolePromptHelper,
+      new ErrorReporter(new PrintStream(err)), credentials.toFile()));
+    sendSafelyCLI.setCheckFile(true);
+    doReturn(sendSafely).when(sendSafelyCLI).getSendSafelyAPIForKeyAndSecret("api-key", "api-secret");
+    when(sendSafely.getUserInformation()).thenReturn(mock(UserInformation.class));
+  }
+
+  private void listPackageWithFiles(com.sendsafely.File... files) throws Exception {
+    PackageReference reference = mock(PackageReference.class);
+    when(reference.getPackageId()).thenReturn("pkg");
+    when(sendSafely.getActivePackages()).thenReturn(Collections.singletonList(reference));
+
+    Package pkg = mock(Package.class);
+    when(pkg.getPackageId()).thenReturn("pkg");
+    when(pkg.getFiles()).thenReturn(Arrays.asList(files));
+    when(sendSafely.getPackageInformation("pkg")).thenReturn(pkg);
+  }
+
+  private int callWithOutput(ByteArrayOutputStream out, ByteArrayOutputStream err, String... args)
+    throws Exception {
+    new CommandLine(sendSafelyCLI).setCaseInsensitiveEnumValuesAllowed(true).parseArgs(args);
+
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    try {
+      System.setOut(new PrintStream(out, true));
+      System.setErr(new PrintStream(err, true));
+      return sendSafelyCLI.call();
+    } finally {
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+    }
+  }
+
+  /**
+   * Parse every stdout line as its own JSON event, failing on any line that isn't one.
+   */
+  private static List<JsonNode> jsonLines(ByteArrayOutputStream out) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    List<JsonNode> events = new ArrayList<>();
+
+    for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\\R")) {
+      if (line.isEmpty())
+        continue;
+
+      JsonNode event = mapper.readTree(line);
+      assertTrue(event.isObject() && event.hasNonNull("type"), "Not a JSON event: " + line);
+      events.add(event);
+    }
+
+    return events;
+  }
+
   @Test
   void keygenPersistsKeyWithoutPrintingPrivateMaterial() throws Exception {
     Path directory = Files.createTempDirectory("sendsafely-keygen");
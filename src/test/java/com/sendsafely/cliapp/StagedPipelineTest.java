@@ -0,0 +1,78 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class StagedPipelineTest {
+    @Test
+    void runsEveryStageAndKeepsInputOrder() {
+        List<StagedPipeline.Result<String>> results = new StagedPipeline<String>()
+            .stage("first", 4, item -> item + "-a")
+            .stage("second", 1, item -> item + "-b")
+            .run(Arrays.asList("x", "y", "z"));
+
+        assertEquals(3, results.size());
+        assertEquals("x-a-b", results.get(0).getItem());
+        assertEquals("y-a-b", results.get(1).getItem());
+        assertEquals("z-a-b", results.get(2).getItem());
+        assertTrue(results.get(2).isSuccess());
+    }
+
+    @Test
+    void failedItemsSkipLaterStages() {
+        AtomicInteger archived = new AtomicInteger();
+
+        List<StagedPipeline.Result<String>> results = new StagedPipeline<String>()
+            .stage("download", 2, item -> {
+                if (item.equals("bad")) {
+                    throw new IOException("truncated");
+                }
+                return item;
+            })
+            .stage("archive", 2, item -> {
+                archived.incrementAndGet();
+                return item;
+            })
+            .run(Arrays.asList("good", "bad"));
+
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals("bad", results.get(1).getItem());
+        assertEquals("download", results.get(1).getFailedStage());
+        assertEquals("truncated", results.get(1).getFailure().getMessage());
+        assertEquals(1, archived.get());
+    }
+
+    @Test
+    void itemsOverlapAcrossStages() {
+        CountDownLatch secondStarted = new CountDownLatch(1);
+
+        List<StagedPipeline.Result<Integer>> results = new StagedPipeline<Integer>()
+            .stage("fetch", 1, item -> {
+                if (item == 2) {
+                    secondStarted.countDown();
+                }
+                return item;
+            })
+            .stage("slow", 1, item -> {
+                // The first item only leaves this stage once the next one has been fetched
+                if (item == 1 && !secondStarted.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("stages did not overlap");
+                }
+                return item;
+            })
+            .run(Arrays.asList(1, 2));
+
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).isSuccess());
+    }
+}
@@ -0,0 +1,87 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StagingAreaTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void deletesTheDirectoryOnClose() throws IOException {
+        StagingArea stagingArea = new StagingArea(temp.toFile(), 0);
+        File directory;
+
+        try (StagingArea.Staging staging = stagingArea.stage("upload", 1024)) {
+            directory = staging.getDirectory();
+            assertTrue(directory.getName().startsWith("ss-upload-"));
+            File spooled = new File(directory, "data");
+            assertEquals(3, staging.spool(new ByteArrayInputStream(new byte[] {1, 2, 3}), spooled));
+            assertEquals(3, spooled.length());
+        }
+
+        assertFalse(directory.exists());
+    }
+
+    @Test
+    void refusesToStagePastTheQuota() throws IOException {
+        StagingArea stagingArea = new StagingArea(temp.toFile(), 1000);
+
+        try (StagingArea.Staging staging = stagingArea.stage("first", 600)) {
+            assertThrows(IOException.class, () -> stagingArea.stage("second", 600));
+            assertThrows(IOException.class, () -> staging.grow(1200));
+        }
+
+        // Closing gives the reservation back
+        stagingArea.stage("second", 600).close();
+    }
+
+    @Test
+    void sweepsOnlyDirectoriesNoLongerInUse() throws IOException {
+        StagingArea stagingArea = new StagingArea(temp.toFile(), 0);
+
+        File orphan = Files.createDirectory(temp.resolve("ss-orphan-1")).toFile();
+        Files.createFile(orphan.toPath().resolve(StagingArea.LOCK_FILE));
+        Files.createFile(orphan.toPath().resolve("orphan.zip"));
+
+        File legacy = Files.createDirectory(temp.resolve("ss-legacy")).toFile();
+        Files.createFile(legacy.toPath().resolve("legacy.zip"));
+        legacy.setLastModified(System.currentTimeMillis() - Duration.ofDays(2).toMillis());
+
+        File unrelated = Files.createDirectory(temp.resolve("ss-unrelated")).toFile();
+        Files.createFile(unrelated.toPath().resolve("notes.txt"));
+        unrelated.setLastModified(System.currentTimeMillis() - Duration.ofDays(2).toMillis());
+
+        try (StagingArea.Staging staging = stagingArea.stage("active", 0)) {
+            assertEquals(2, stagingArea.sweep(Duration.ofDays(1)).size());
+
+            assertTrue(staging.getDirectory().exists());
+            assertTrue(unrelated.exists());
+            assertFalse(orphan.exists());
+            assertFalse(legacy.exists());
+        }
+
+        assertEquals(Collections.emptyList(), stagingArea.sweep(Duration.ofDays(1)));
+    }
+
+    @Test
+    void parsesSizes() {
+        assertEquals(1024, StagingArea.parseSize("1024"));
+        assertEquals(500L << 20, StagingArea.parseSize("500M"));
+        assertEquals(20L << 30, StagingArea.parseSize("20g"));
+        assertEquals(2L << 30, StagingArea.parseSize("2GiB"));
+        assertThrows(IllegalArgumentException.class, () -> StagingArea.parseSize("lots"));
+    }
+}
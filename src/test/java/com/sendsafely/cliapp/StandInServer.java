@@ -0,0 +1,382 @@
+package com.sendsafely.cliapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory stand-in for the SendSafely REST API (v2.0), covering the endpoints the CLI uses:
+ * credential checks, user information, package creation and lookup, recipients, file creation,
+ * part upload and download, finalize, keycodes and deletion. Uploaded parts are stored as opaque
+ * bytes, so real HTTP, client-side encryption and file I/O are exercised without touching
+ * production. Request signatures are accepted as-is, and keycodes are returned unencrypted, so
+ * flows that decrypt keycodes with a local private key are out of scope.
+ */
+class StandInServer implements AutoCloseable {
+    private static final String API = "/api/v2.0";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, StoredPackage> packages = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> parts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+    StandInServer(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+
+        route("GET", API + "/config/verify-credentials/", (m, body) -> success());
+        route("GET", API + "/user/", (m, body) -> success()
+            .put("id", "stand-in-user")
+            .put("email", "load-test@example.com")
+            .put("firstName", "Load")
+            .put("lastName", "Test"));
+        route("PUT", API + "/package/", (m, body) -> createPackage());
+        route("GET", API + "/package/", (m, body) -> activePackages());
+        route("GET", API + "/package/([^/]+)/", (m, body) -> packageInformation(pkg(m)));
+        route("DELETE", API + "/package/([^/]+)/", (m, body) -> {
+            packages.remove(pkg(m).id);
+            return success();
+        });
+        route("PUT", API + "/package/([^/]+)/recipient/", this::addRecipient);
+        route("DELETE", API + "/package/([^/]+)/recipient/([^/]+)/", (m, body) -> {
+            pkg(m).recipients.remove(m.group(2));
+            return success();
+        });
+        route("PUT", API + "/package/([^/]+)/file/", this::createFile);
+        route("DELETE", API + "/package/([^/]+)/directory/[^/]+/file/([^/]+)/", (m, body) -> {
+            pkg(m).files.remove(m.group(2));
+            return success();
+        });
+        route("POST", API + "/package/([^/]+)/file/([^/]+)/upload-urls/",
+            (m, body) -> partUrls(m.group(2), body, "uploadUrls"));
+        route("POST", API + "/package/([^/]+)/file/([^/]+)/upload-complete/", (m, body) -> {
+            file(m).uploaded = true;
+            return success();
+        });
+        route("POST", API + "/package/([^/]+)/file/([^/]+)/download-urls/",
+            (m, body) -> partUrls(m.group(2), body, "downloadUrls"));
+        route("PUT", API + "/package/([^/]+)/message/", (m, body) -> {
+            pkg(m).message = body.path("message").asText(null);
+            return success();
+        });
+        route("GET", API + "/package/([^/]+)/message/[^/]+/", (m, body) -> {
+            StoredPackage p = pkg(m);
+            return success().put("message", p.message);
+        });
+        route("POST", API + "/package/([^/]+)/finalize/", this::finalizePackage);
+        route("GET", API + "/package/([^/]+)/link/([^/]+)/", (m, body) -> success()
+            .put("message", pkg(m).keycode));
+    }
+
+    /**
+     * Start serving on the configured port.
+     */
+    void start() {
+        server.start();
+    }
+
+    /**
+     * The base URL to pass as the CLI's --host.
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * The number of requests served so far, by method and path pattern.
+     */
+    Map<String, AtomicLong> getRequestCounts() {
+        return requestCounts;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void route(String method, String pattern, Handler handler) {
+        routes.add(new Route(method, Pattern.compile(pattern), handler));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (!path.endsWith("/")) {
+                path += "/";
+            }
+
+            if (path.startsWith("/parts/")) {
+                handlePart(exchange, path.substring("/parts/".length(), path.length() - 1));
+                return;
+            }
+
+            for (Route route : routes) {
+                Matcher matcher = route.pattern.matcher(path);
+                if (route.method.equals(exchange.getRequestMethod()) && matcher.matches()) {
+                    requestCounts.computeIfAbsent(route.method + " " + route.pattern.pattern(),
+                        key -> new AtomicLong()).incrementAndGet();
+                    byte[] request = readAll(exchange.getRequestBody());
+                    JsonNode body = request.length == 0
+                        ? mapper.createObjectNode() : mapper.readTree(request);
+                    respond(exchange, 200, route.handler.handle(matcher, body));
+                    return;
+                }
+            }
+
+            respond(exchange, 404, error("Unknown endpoint " + exchange.getRequestMethod() + " "
+                + path));
+        } catch (NotFoundException e) {
+            respond(exchange, 200, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            respond(exchange, 500, error(e.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handlePart(HttpExchange exchange, String key) throws IOException {
+        requestCounts.computeIfAbsent(exchange.getRequestMethod() + " /parts/",
+            k -> new AtomicLong()).incrementAndGet();
+
+        if ("PUT".equals(exchange.getRequestMethod())) {
+            parts.put(key, readAll(exchange.getRequestBody()));
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            byte[] part = parts.get(key);
+            if (part == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, part.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(part);
+            }
+        }
+    }
+
+    private ObjectNode createPackage() {
+        StoredPackage p = new StoredPackage();
+        packages.put(p.id, p);
+        return success()
+            .put("packageId", p.id)
+            .put("packageCode", p.code)
+            .put("serverSecret", p.serverSecret)
+            .put("rootDirectoryId", p.rootDirectoryId);
+    }
+
+    private ObjectNode activePackages() {
+        ObjectNode response = success();
+        ArrayNode list = response.putArray("packages");
+        for (StoredPackage p : packages.values()) {
+            list.addObject()
+                .put("packageId", p.id)
+                .put("packageCode", p.code)
+                .put("packageUpdateTimestamp", timestamp(p.created));
+        }
+        return response;
+    }
+
+    private ObjectNode packageInformation(StoredPackage p) {
+        ObjectNode response = success()
+            .put("packageId", p.id)
+            .put("packageCode", p.code)
+            .put("serverSecret", p.serverSecret)
+            .put("rootDirectoryId", p.rootDirectoryId)
+            .put("state", p.state)
+            .put("packageTimestamp", timestamp(p.created))
+            .put("packageContainsMessage", p.message != null)
+            .put("life", 10);
+        ArrayNode recipients = response.putArray("recipients");
+        p.recipients.forEach((id, email) -> recipients.addObject()
+            .put("recipientId", id)
+            .put("email", email));
+        ArrayNode files = response.putArray("files");
+        for (StoredFile f : p.files.values()) {
+            files.addObject()
+                .put("fileId", f.id)
+                .put("fileName", f.name)
+                .put("fileSize", f.size)
+                .put("parts", f.parts);
+        }
+        response.putArray("directories");
+        return response;
+    }
+
+    private ObjectNode addRecipient(Matcher m, JsonNode body) {
+        StoredPackage p = pkg(m);
+        String email = body.path("email").asText();
+        String id = p.recipients.entrySet().stream()
+            .filter(e -> e.getValue().equals(email))
+            .map(Map.Entry::getKey)
+            .findFirst()
+            .orElseGet(() -> {
+                String newId = UUID.randomUUID().toString();
+                p.recipients.put(newId, email);
+                return newId;
+            });
+        return success().put("recipientId", id).put("email", email).put("approvalRequired", false);
+    }
+
+    private ObjectNode createFile(Matcher m, JsonNode body) {
+        StoredFile f = new StoredFile();
+        f.name = body.path("filename").asText(body.path("fileName").asText("file"));
+        f.size = body.path("filesize").asLong(body.path("fileSize").asLong());
+        f.parts = Math.max(1, body.path("parts").asInt(1));
+        pkg(m).files.put(f.id, f);
+        return success().put("message", f.id).put("fileId", f.id);
+    }
+
+    private ObjectNode partUrls(String fileId, JsonNode body, String field) {
+        int start = Math.max(1, body.path("part").asInt(body.path("startSegment").asInt(1)));
+        int end = body.has("endSegment") ? body.get("endSegment").asInt() : start + 24;
+        ObjectNode response = success();
+        ArrayNode urls = response.putArray(field);
+        for (int part = start; part <= end; part++) {
+            urls.addObject()
+                .put("part", part)
+                .put("url", getUrl() + "/parts/" + fileId + "-" + part);
+        }
+        return response;
+    }
+
+    private ObjectNode finalizePackage(Matcher m, JsonNode body) {
+        StoredPackage p = pkg(m);
+        if (p.recipients.isEmpty()) {
+            return error("Package has no recipients");
+        }
+        p.state = "PACKAGE_STATE_IN_PROGRESS";
+        return success().put("message", getUrl() + "/receive/?packageCode=" + p.code);
+    }
+
+    private StoredPackage pkg(Matcher matcher) {
+        StoredPackage p = packages.get(matcher.group(1));
+        if (p == null) {
+            throw new NotFoundException("Package " + matcher.group(1) + " not found");
+        }
+        return p;
+    }
+
+    private StoredFile file(Matcher matcher) {
+        StoredFile f = pkg(matcher).files.get(matcher.group(2));
+        if (f == null) {
+            throw new NotFoundException("File " + matcher.group(2) + " not found");
+        }
+        return f;
+    }
+
+    private ObjectNode success() {
+        return mapper.createObjectNode().put("response", "SUCCESS");
+    }
+
+    private ObjectNode error(String message) {
+        return mapper.createObjectNode().put("response", "FAIL").put("message", message);
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String timestamp(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private interface Handler {
+        ObjectNode handle(Matcher matcher, JsonNode body);
+    }
+
+    private static class Route {
+        final String method;
+        final Pattern pattern;
+        final Handler handler;
+
+        Route(String method, Pattern pattern, Handler handler) {
+            this.method = method;
+            this.pattern = pattern;
+            this.handler = handler;
+        }
+    }
+
+    private static class NotFoundException extends RuntimeException {
+        NotFoundException(String message) {
+            super(message);
+        }
+    }
+
+    private static class StoredPackage {
+        final String id = UUID.randomUUID().toString().substring(0, 14).toUpperCase();
+        final String code = UUID.randomUUID().toString().replace("-", "");
+        final String serverSecret = UUID.randomUUID().toString().replace("-", "");
+        final String keycode = UUID.randomUUID().toString().replace("-", "");
+        final String rootDirectoryId = UUID.randomUUID().toString();
+        final Date created = new Date();
+        final Map<String, String> recipients = new ConcurrentHashMap<>();
+        final Map<String, StoredFile> files = new ConcurrentHashMap<>();
+        volatile String state = "PACKAGE_STATE_IN_PROGRESS";
+        volatile String message;
+    }
+
+    private static class StoredFile {
+        final String id = UUID.randomUUID().toString();
+        String name;
+        long size;
+        int parts;
+        volatile boolean uploaded;
+    }
+
+    /**
+     * Run the stand-in server until the process is stopped.
+     *
+     * @param args An optional port, 8443 by default
+     */
+    public static void main(String... args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8443;
+        StandInServer server = new StandInServer(port, 32);
+        server.start();
+        System.out.println("SendSafely stand-in listening on " + server.getUrl());
+    }
+}
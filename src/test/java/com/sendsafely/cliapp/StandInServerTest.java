@@ -0,0 +1,77 @@
+package com.sendsafely.cliapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StandInServerTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private StandInServer server;
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = new StandInServer(0, 2);
+        server.start();
+    }
+
+    @AfterEach
+    void teardown() {
+        server.close();
+    }
+
+    @Test
+    void createsListsAndFinalizesPackages() throws IOException {
+        String packageId = request("PUT", "/api/v2.0/package/", null).get("packageId").asText();
+
+        JsonNode first = request("PUT", "/api/v2.0/package/" + packageId + "/recipient/",
+            "{\"email\":\"someone@example.com\"}");
+        JsonNode second = request("PUT", "/api/v2.0/package/" + packageId + "/recipient/",
+            "{\"email\":\"someone@example.com\"}");
+        assertEquals(first.get("recipientId"), second.get("recipientId"));
+
+        JsonNode finalized = request("POST", "/api/v2.0/package/" + packageId + "/finalize/", "{}");
+        assertEquals("SUCCESS", finalized.get("response").asText());
+
+        JsonNode active = request("GET", "/api/v2.0/package/", null);
+        assertEquals(packageId, active.get("packages").get(0).get("packageId").asText());
+
+        JsonNode info = request("GET", "/api/v2.0/package/" + packageId + "/", null);
+        assertEquals(1, info.get("recipients").size());
+    }
+
+    @Test
+    void reportsUnknownPackagesAsFailures() throws IOException {
+        JsonNode response = request("GET", "/api/v2.0/package/MISSING/", null);
+
+        assertEquals("FAIL", response.get("response").asText());
+        assertTrue(response.get("message").asText().contains("MISSING"));
+    }
+
+    private JsonNode request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection =
+            (HttpURLConnection) new URL(server.getUrl() + path).openConnection();
+        connection.setRequestMethod(method);
+
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        try (InputStream in = connection.getInputStream()) {
+            return mapper.readTree(in);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.sendsafely.cliapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.zeroturnaround.zip.ZipUtil;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Times zipping a directory with ZipUtil.pack, which the CLI used before, against
+ * ParallelZipWriter, and checks both archives hold the same entries. Without --source a tree of
+ * half random, half text-like files is generated; the random half stands in for media and archives
+ * that ParallelZipWriter stores rather than deflates.
+ */
+@Command(
+    name = "ss-zip-bench",
+    mixinStandardHelpOptions = true,
+    description = "Directory zipping benchmark for the SendSafely CLI")
+class ZipBenchmark implements Callable<Integer> {
+    @Option(names = {"--source"}, description = "Directory to zip. A generated tree is used if omitted.")
+    private File source;
+
+    @Option(names = {"-n", "--files"}, description = "Files in the generated tree (default: ${DEFAULT-VALUE}).")
+    private int fileCount = 64;
+
+    @Option(names = {"-s", "--file-size"}, description = "Bytes per generated file (default: ${DEFAULT-VALUE}).")
+    private long fileSize = 16 * 1024 * 1024;
+
+    @Option(names = {"-t", "--threads"}, description = "ParallelZipWriter threads (default: ${DEFAULT-VALUE}).")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"-l", "--compression-level"}, description = "ParallelZipWriter deflate level (default: ${DEFAULT-VALUE}).")
+    private int level = 6;
+
+    public static void main(String... args) {
+        System.exit(new CommandLine(new ZipBenchmark()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        Path workDirectory = Files.createTempDirectory("ss-zip-bench");
+
+        try {
+            File directory = source != null ? source : generateTree(workDirectory.resolve("tree"));
+            File zipUtilZip = workDirectory.resolve("zip-util.zip").toFile();
+            File parallelZip = workDirectory.resolve("parallel.zip").toFile();
+
+            System.out.println("Zipping " + directory + " (" + FileUtils.sizeOf(directory)
+                + " bytes), " + threads + " threads for ParallelZipWriter");
+
+            long start = System.nanoTime();
+            ZipUtil.pack(directory, zipUtilZip);
+            report("ZipUtil.pack", System.nanoTime() - start, zipUtilZip);
+
+            start = System.nanoTime();
+            new ParallelZipWriter(threads, level).pack(directory, parallelZip);
+            report("ParallelZipWriter", System.nanoTime() - start, parallelZip);
+
+            int expected = countFiles(zipUtilZip);
+            int actual = countFiles(parallelZip);
+            if (expected != actual) {
+                System.err.println("Entry mismatch: ZipUtil.pack wrote " + expected
+                    + " files, ParallelZipWriter wrote " + actual);
+                return 1;
+            }
+
+            return 0;
+        } finally {
+            FileUtils.deleteDirectory(workDirectory.toFile());
+        }
+    }
+
+    private File generateTree(Path tree) throws IOException {
+        Random random = new Random(42);
+        byte[] buffer = new byte[64 * 1024];
+
+        for (int i = 0; i < fileCount; i++) {
+            Path file = Files.createDirectories(tree.resolve("dir-" + i % 8)).resolve("file-" + i);
+
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long written = 0; written < fileSize; written += buffer.length) {
+                    if (i % 2 == 0) {
+                        random.nextBytes(buffer);
+                    } else {
+                        for (int j = 0; j < buffer.length; j++) {
+                            buffer[j] = (byte) ('a' + random.nextInt(8));
+                        }
+                    }
+                    out.write(buffer, 0, (int) Math.min(buffer.length, fileSize - written));
+                }
+            }
+        }
+
+        return tree.toFile();
+    }
+
+    private int countFiles(File zip) throws IOException {
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            return (int) zipFile.stream().filter(entry -> !entry.isDirectory()).count();
+        }
+    }
+
+    private void report(String label, long elapsedNanos, File zip) {
+        System.out.printf("%s: %.0f ms, %d bytes%n", label, elapsedNanos / 1e6, zip.length());
+    }
+}